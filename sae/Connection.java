@@ -34,10 +34,16 @@ public class Connection {
 	}
 	/** Use lastPredictedClass from both experts to check if they predicted the same class */
 	public void updateActionCounter() { 
-		if(first.getLastPredictedClass() == second.getLastPredictedClass())
+		int predicted = first.getLastPredictedClass();
+		if(predicted != Expert.NO_PREDICTION && predicted == second.getLastPredictedClass())
 			++sameActions;
 	}
 	
+	/** Add same decisions counted in bulk (e.g. over a micro-batch) */
+	public void addSameActions(int sameActions) {
+		this.sameActions += sameActions;
+	}
+	
 	/**
 	 * One connection is said to be redundant iif: 
 	 * It is active and its sc is greater than or equal to scMax. 
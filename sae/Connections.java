@@ -89,7 +89,8 @@ public class Connections {
 				//}
 			}
 			else {
-				network.setEdge(c.getFirst().getID(), c.getSecond().getID(), c.getID());
+				/* Sc is the edge weight (see LabelPropagation and Louvain) */
+				network.setEdge(c.getFirst().getID(), c.getSecond().getID(), c.getID(), c.getSc(periodLength));
 				c.setActive(true);
 			}
 		}
@@ -16,6 +16,10 @@ import moa.classifiers.Classifier;
  * with this class.  
  * @author heitor */
 public class Expert implements Comparable<Expert> {
+	/* lastPredictedClass of a muted expert (see doom) */
+	public static final int NO_PREDICTION = -1;
+	/* Instances of the current period needed before a frozen expert can be unfrozen */
+	protected static final int MIN_INSTANCES_TO_UNFREEZE = 30;
 	/* This expert's unique ID */
 	protected int ID;
 	/* Base learner used to train and predict */
@@ -26,8 +30,21 @@ public class Expert implements Comparable<Expert> {
 	protected double correctlyClassifiedRatioLastPeriod;
 	/* Last predicted class by this classifier. */
 	protected int lastPredictedClass;
+	/* Voting round of lastPredictedClass (see test(Instance, long)) */
+	protected long lastPredictedRound = -1;
+	/* Instance whose prediction was skipped (see skipTest). It is predicted as soon as 
+	 * lastPredictedClass is needed. */
+	protected Instance skippedInstance = null;
 	/* When this expert was created (time t) */
 	protected long createdOn;
+	/* Consecutive periods whose accuracy stayed within the freezing tolerance of the 
+	 * previous period (see updateFreezing) and whether this expert is frozen, i.e. it 
+	 * predicts but does not train. */
+	protected int stablePeriods;
+	protected boolean frozen;
+	/* Whether this expert is expected to be removed at the next update (see Network.checkDoomed), 
+	 * doomed experts do not train, muted ones do not predict either. */
+	protected boolean doomed, muted;
 	
 	/* Boolean flag to check whether this expert is currently considered a candidate or not. */
 	public boolean candidate;
@@ -79,6 +96,26 @@ public class Expert implements Comparable<Expert> {
 			this.learner.trainOnInstance(i);
 	}
 
+	/**
+	 * Restore an expert (e.g. from a checkpoint). The learner is used as is, it is not copied. 
+	 * @param ID must be be unique
+	 * @param learner trained base learner
+	 * @param createdOn when it was created
+	 * @param candidate whether it is a candidate or not
+	 * @param correctlyClassified correctly classified instances (current period)
+	 * @param correctlyClassifiedRatioLastPeriod
+	 * @param lastPredictedClass */
+	protected Expert(int ID, Classifier learner, long createdOn, boolean candidate, 
+			int correctlyClassified, double correctlyClassifiedRatioLastPeriod, int lastPredictedClass) {
+		this.ID = ID;
+		this.candidate = candidate;
+		this.learner = learner;
+		this.createdOn = createdOn;
+		this.correctlyClassified = correctlyClassified;
+		this.correctlyClassifiedRatioLastPeriod = correctlyClassifiedRatioLastPeriod;
+		this.lastPredictedClass = lastPredictedClass;
+	}
+
 	/**
 	 * Reset 'memory' about correctlyClassified instances. 
 	 * @param periodLength
@@ -86,8 +123,40 @@ public class Expert implements Comparable<Expert> {
 	public void reset(int periodLength) {
 		this.correctlyClassifiedRatioLastPeriod = getCorrectlyClassifiedRatio(periodLength);
 		this.correctlyClassified = 0;
+		/* Doomed experts that were not removed (see Network.checkDoomed) train again */
+		this.doomed = false;
+		this.muted = false;
 	}
 
+	/**
+	 * Freeze this expert if its accuracy was stable (within tolerance of the previous period) 
+	 * for the last stablePeriodsToFreeze periods, otherwise unfreeze it. It must be called 
+	 * before reset(...), since it compares the period that just ended with the previous one. 
+	 * @param periodLength
+	 * @param stablePeriodsToFreeze
+	 * @param tolerance */
+	public void updateFreezing(int periodLength, int stablePeriodsToFreeze, double tolerance) {
+		double change = Math.abs(getCorrectlyClassifiedRatio(periodLength) - correctlyClassifiedRatioLastPeriod);
+		stablePeriods = change <= tolerance ? stablePeriods + 1 : 0;
+		frozen = stablePeriods >= stablePeriodsToFreeze;
+	}
+	
+	/**
+	 * Unfreeze this expert if its accuracy during the current period dropped more than 
+	 * tolerance below its accuracy last period. Nothing is decided before MIN_INSTANCES_TO_UNFREEZE 
+	 * instances, since the accuracy of so few instances is too noisy. 
+	 * @param instancesSeen instances seen during the current period
+	 * @param tolerance
+	 * @return whether this expert is (still) frozen */
+	public boolean checkFrozen(int instancesSeen, double tolerance) {
+		if(frozen && instancesSeen >= MIN_INSTANCES_TO_UNFREEZE && 
+				correctlyClassified / (double) instancesSeen < correctlyClassifiedRatioLastPeriod - tolerance) {
+			frozen = false;
+			stablePeriods = 0;
+		}
+		return frozen;
+	}
+	
 	/**
 	 * Predict the class value, if correctly classified increment counter.
 	 * It depends on test(..) being called first. To avoid this 'dependency'
@@ -99,15 +168,23 @@ public class Expert implements Comparable<Expert> {
 	 * @param instance
 	 * @return last predicted class value */
 	public int checkAccuracy(Instance instance) {
-		if(lastPredictedClass == instance.classValue()) 
+		if(getLastPredictedClass() == instance.classValue()) 
 			++correctlyClassified;
 		return lastPredictedClass;
 	}
 	
+	/**
+	 * Add instances correctly classified (e.g. counted in bulk over a micro-batch). 
+	 * @param correctlyClassified */
+	public void addCorrectlyClassified(int correctlyClassified) {
+		this.correctlyClassified += correctlyClassified;
+	}
+	
 	/**
 	 * Train learner on instance. 
 	 * @param instance */
 	public void train(Instance instance) {
+		completeSkippedTest();
 		learner.trainOnInstance(instance);
 	}
 	
@@ -115,6 +192,7 @@ public class Expert implements Comparable<Expert> {
 	 * Train learner on multiple instances. 
 	 * @param instances */
 	public void train(ArrayList<Instance> instances) {
+		completeSkippedTest();
 		for(Instance i : instances)
 			learner.trainOnInstance(i);
 	}
@@ -124,11 +202,84 @@ public class Expert implements Comparable<Expert> {
 	 * @param instance
 	 * @return predicted class index */
 	public int test(Instance instance) {
-		lastPredictedClass = Utils.maxIndex(learner.getVotesForInstance(instance));
+		skippedInstance = null;
+		lastPredictedRound = -1;
+		lastPredictedClass = muted ? NO_PREDICTION : predict(instance);
+		return lastPredictedClass;
+	}
+	
+	/**
+	 * Ask the learner for the class of an instance. 
+	 * @param instance
+	 * @return predicted class index */
+	protected int predict(Instance instance) {
+		return Utils.maxIndex(learner.getVotesForInstance(instance));
+	}
+	
+	/**
+	 * Same as test(instance), but the learner is asked only once per voting round, i.e., 
+	 * experts that belong to more than one subnetwork predict the instance once. 
+	 * @param instance
+	 * @param round voting round, it must change for every instance
+	 * @return predicted class index */
+	public int test(Instance instance, long round) {
+		if(round != lastPredictedRound) {
+			test(instance);
+			lastPredictedRound = round;
+		}
+		else
+			completeSkippedTest();
 		return lastPredictedClass;
 	}
 	
+	/**
+	 * The prediction of this instance was not needed for voting. It is made only when 
+	 * lastPredictedClass is requested (e.g. to check accuracy or update connections), 
+	 * and before training, so that it is the same prediction test(...) would have made. 
+	 * @param instance
+	 * @param round voting round */
+	public void skipTest(Instance instance, long round) {
+		if(round != lastPredictedRound) {
+			skippedInstance = instance;
+			lastPredictedRound = round;
+		}
+	}
+	
+	protected void completeSkippedTest() {
+		if(skippedInstance != null) {
+			Instance instance = skippedInstance;
+			skippedInstance = null;
+			lastPredictedClass = muted ? NO_PREDICTION : predict(instance);
+		}
+	}
+	
+	/**
+	 * This expert is expected to be removed at the next update, it stops training for the 
+	 * rest of the period (unless it resumes). If muted, it also stops predicting: lastPredictedClass is NO_PREDICTION, 
+	 * which is neither correct, nor the same as any other prediction, nor a vote. 
+	 * @param muted */
+	public void doom(boolean muted) {
+		doomed = true;
+		this.muted = muted;
+	}
+	
+	/**
+	 * This expert is no longer expected to be removed at the next update, it trains 
+	 * (and predicts) again. */
+	public void resume() {
+		doomed = false;
+		muted = false;
+	}
+	
 	/* Accessors */
+	/** @return the learner (a copy if it is not in this process, see RemoteExpert) */
+	public Classifier getLearner() {
+		return learner;
+	}
+	/** @return a copy of the learner, which may be used while this expert keeps learning */
+	public Classifier copyLearner() {
+		return learner.copy();
+	}
 	public boolean isCandidate() {
 		return candidate;
 	}
@@ -144,10 +295,20 @@ public class Expert implements Comparable<Expert> {
 	public double getCorrectlyClassifiedRatioLastPeriod() {
 		return correctlyClassifiedRatioLastPeriod;
 	}
+	public boolean isDoomed() {
+		return doomed;
+	}
+	public boolean isFrozen() {
+		return frozen;
+	}
+	public int getStablePeriods() {
+		return stablePeriods;
+	}
 	public long getCreatedOn() {
 		return createdOn;
 	}
 	public int getLastPredictedClass() {
+		completeSkippedTest();
 		return lastPredictedClass;
 	}
 	public String nodeLabel(int periodLength, long ticks) {
@@ -1,5 +1,6 @@
 package moa.classifiers.sae;
 
+import java.io.Serializable;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -12,6 +13,7 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.function.IntConsumer;
 
 
 /**
@@ -25,7 +27,9 @@ import java.util.Stack;
  * @param <N> Node value
  * @param <E> Edge value
  */
-public class Graph<N, E> {
+public class Graph<N, E> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * Node has an unique ID, it shall not repeat within the same Graph. 
@@ -40,7 +44,9 @@ public class Graph<N, E> {
      *
      * @author heitor
      */
-    private class Node {
+    private class Node implements Serializable {
+
+        private static final long serialVersionUID = 1L;
 
         // Unique ID. Must not repeat for the same Graph. 
         final public int ID;
@@ -48,6 +54,13 @@ public class Graph<N, E> {
         public HashMap<Node, E> neighbors = new HashMap<Node, E>();
         // Node value. 
         public N value;
+        // Edge weights (see setEdge(int, int, E, double)), null while every
+        // edge of this node has the default weight (1.0)
+        public HashMap<Node, Double> weights = null;
+        // Neighbors' ids, rebuilt lazily after neighbors change (see neighborIDs())
+        private transient int[] neighborIDs;
+        // Weights in the same order as neighborIDs (see neighborWeights())
+        private transient double[] neighborWeights;
 
         public Node(int ID, N value) {
             this.ID = ID;
@@ -73,15 +86,68 @@ public class Graph<N, E> {
             return neighborsValues;
         }
 
+        /**
+         * @return ids of all neighbors of this node. The array is shared, it
+         * must not be modified
+         */
+        public int[] neighborIDs() {
+            if (neighborIDs == null) {
+                int[] ids = new int[neighbors.size()];
+                int i = 0;
+                for (Node node : neighbors.keySet()) {
+                    ids[i++] = node.ID;
+                }
+                neighborIDs = ids;
+            }
+            return neighborIDs;
+        }
+
+        /**
+         * @return weights of the edges to all neighbors, in the same order as
+         * neighborIDs(). The array is shared, it must not be modified
+         */
+        public double[] neighborWeights() {
+            if (neighborWeights == null) {
+                double[] w = new double[neighbors.size()];
+                int i = 0;
+                for (Node node : neighbors.keySet()) {
+                    w[i++] = getWeightForNeighbor(node);
+                }
+                neighborWeights = w;
+            }
+            return neighborWeights;
+        }
+
+        public double getWeightForNeighbor(Node u) {
+            Double w = weights == null ? null : weights.get(u);
+            return w == null ? 1.0 : w;
+        }
+
         // MUTATORS (change the internal state)
         public void addAdjacent(Node v, E e) {
             if (!neighbors.containsKey(v)) {
                 neighbors.put(v, e);
+                neighborIDs = null;
+                neighborWeights = null;
             }
         }
 
         public void setEdgeForAdjacent(Node u, E e) {
-            neighbors.put(u, e);
+            if (neighbors.put(u, e) == null) {
+                neighborIDs = null;
+                neighborWeights = null;
+            }
+        }
+
+        public void setWeightForAdjacent(Node u, double w) {
+            if (weights == null) {
+                if (w == 1.0) {
+                    return;
+                }
+                weights = new HashMap<Node, Double>();
+            }
+            weights.put(u, w);
+            neighborWeights = null;
         }
 
         /**
@@ -90,7 +156,13 @@ public class Graph<N, E> {
          * @param Node u
          */
         public void removeAdjacent(Node u) {
-            neighbors.remove(u);
+            if (neighbors.remove(u) != null) {
+                neighborIDs = null;
+                neighborWeights = null;
+            }
+            if (weights != null) {
+                weights.remove(u);
+            }
         }
 
         // Administrivia methods... 
@@ -141,6 +213,10 @@ public class Graph<N, E> {
     private HashMap<Integer, Node> nodes
             = new HashMap<Integer, Graph<N, E>.Node>();
     private long edgeCounter;
+    // Nodes (and their ids) in the same order as nodes.values(). Rebuilt lazily
+    // after nodes are added or removed (see nodeIDs()).
+    private transient ArrayList<Node> nodesCache;
+    private transient int[] nodeIDsCache;
 
     // Only for SFNClassifier
     private String choosenCentralityMetric;
@@ -186,6 +262,20 @@ public class Graph<N, E> {
         return null;
     }
     
+    /**
+     * @param vID id of node v
+     * @param uID id of node u
+     * @return weight of the edge between v and u (1.0 unless set, see
+     * setEdge(int, int, E, double)) or 0.0 if they are not adjacent
+     */
+    public double getWeight(int vID, int uID) {
+        Node v = nodes.get(vID), u = nodes.get(uID);
+        if (v != null && u != null && v.neighbors.containsKey(u)) {
+            return v.getWeightForNeighbor(u);
+        }
+        return 0.0;
+    }
+
     /**
      * If there is no node with the given ID, returns null
      *
@@ -203,6 +293,133 @@ public class Graph<N, E> {
     public List<Integer> getNodesIDs() {
         return new ArrayList<Integer>(this.nodes.keySet());
     }
+
+    /*
+     * Traversal methods that allocate nothing (once the graph stops changing).
+     * Nodes are visited in the same order as getNodesIDs() and neighbors in the
+     * same order as getNeighborsIDs(). Visitors see the graph as it was when the
+     * traversal started, i.e., they may change the graph.
+     */
+
+    /**
+     * Visit the id of every node.
+     *
+     * @param action receives each node id
+     */
+    public void forEachNode(IntConsumer action) {
+        for (int ID : nodeIDs()) {
+            action.accept(ID);
+        }
+    }
+
+    /**
+     * Visit the id of every neighbor of a node. Nothing happens if the node
+     * does not exist.
+     *
+     * @param ID id of node
+     * @param action receives each neighbor id
+     */
+    public void forEachNeighbor(int ID, IntConsumer action) {
+        Node v = nodes.get(ID);
+        if (v != null) {
+            for (int n : v.neighborIDs()) {
+                action.accept(n);
+            }
+        }
+    }
+
+    /**
+     * @param ID id of node
+     * @return number of neighbors of the node or -1 if it does not exist
+     */
+    public int degree(int ID) {
+        Node v = nodes.get(ID);
+        return v == null ? -1 : v.neighbors.size();
+    }
+
+    /**
+     * Indexed access to nodes, for loops that can not use forEachNode, e.g.
+     * for (int i = 0; i < graph.getNodesQuantity(); i++) graph.nodeAt(i).
+     * Indexes are only valid until the graph changes.
+     *
+     * @param index from 0 to getNodesQuantity() - 1
+     * @return id of the index-th node
+     */
+    public int nodeAt(int index) {
+        return nodeIDs()[index];
+    }
+
+    /**
+     * @param index from 0 to getNodesQuantity() - 1 (see nodeAt)
+     * @return value of the index-th node
+     */
+    public N valueAt(int index) {
+        nodeIDs();
+        return nodesCache.get(index).value;
+    }
+
+    /**
+     * @param ID id of node
+     * @param index from 0 to degree(ID) - 1
+     * @return id of the index-th neighbor of the node
+     */
+    public int neighborAt(int ID, int index) {
+        return nodes.get(ID).neighborIDs()[index];
+    }
+
+    /**
+     * @param ID id of node
+     * @param index from 0 to degree(ID) - 1
+     * @return weight of the edge to the index-th neighbor (see neighborAt)
+     */
+    public double weightAt(int ID, int index) {
+        return nodes.get(ID).neighborWeights()[index];
+    }
+
+    /**
+     * @param vID id of node v
+     * @param uID id of node u
+     * @return whether there is an edge between v and u
+     */
+    public boolean isAdjacent(int vID, int uID) {
+        Node v = nodes.get(vID), u = nodes.get(uID);
+        return v != null && u != null && v.neighbors.containsKey(u);
+    }
+
+    private int[] nodeIDs() {
+        if (nodeIDsCache == null) {
+            ArrayList<Node> values = new ArrayList<Node>(nodes.values());
+            int[] ids = new int[values.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = values.get(i).ID;
+            }
+            nodesCache = values;
+            nodeIDsCache = ids;
+        }
+        return nodeIDsCache;
+    }
+
+    /**
+     * Copy of the graph structure (nodes and edges). Node and edge values are
+     * shared with this graph, i.e., they are not copied.
+     *
+     * @return a new graph with the same nodes and edges
+     */
+    public Graph<N, E> copy() {
+        Graph<N, E> copy = new Graph<N, E>(choosenCentralityMetric);
+        for (Node v : nodes.values()) {
+            copy.addNode(v.ID, v.value);
+        }
+        for (Node v : nodes.values()) {
+            for (Entry<Node, E> edge : v.neighbors.entrySet()) {
+                if (v.ID < edge.getKey().ID) {
+                    copy.setEdge(v.ID, edge.getKey().ID, edge.getValue(),
+                            v.getWeightForNeighbor(edge.getKey()));
+                }
+            }
+        }
+        return copy;
+    }
     
     /**
      * Return null if graph does not contain node v and an empty list if it
@@ -229,9 +446,10 @@ public class Graph<N, E> {
     public List<Integer> getNeighborsIDs(int ID) {
         Node v = nodes.get(ID);
         if (v != null) {
-            ArrayList<Integer> rs = new ArrayList<Integer>();
-            for (Node n : v.getNeighboors()) {
-                rs.add(n.ID);
+            int[] ids = v.neighborIDs();
+            ArrayList<Integer> rs = new ArrayList<Integer>(ids.length);
+            for (int n : ids) {
+                rs.add(n);
             }
             return rs;
         }
@@ -289,7 +507,7 @@ public class Graph<N, E> {
                 return new Integer(current.lengthFromBegin);
             }
 
-            for (Integer n : getNeighborsIDs(current.nodeID)) {
+            for (int n : nodes.get(current.nodeID).neighborIDs()) {
                 if (!explored.contains(n)) {
                     boolean isInFrontier = false;
                     for (GeoNode f : frontier) {
@@ -334,6 +552,24 @@ public class Graph<N, E> {
         }
     }
 
+    /**
+     * Same as setEdge(vID, uID, e), but the edge also gets a weight (e.g. the
+     * similarity between both nodes). Edges have weight 1.0 unless set.
+     *
+     * @param vID id of node v
+     * @param uID id of node u
+     * @param e edge value
+     * @param weight edge weight
+     */
+    public void setEdge(int vID, int uID, E e, double weight) {
+        setEdge(vID, uID, e);
+        Node v = nodes.get(vID), u = nodes.get(uID);
+        if (v != null && u != null) {
+            v.setWeightForAdjacent(u, weight);
+            u.setWeightForAdjacent(v, weight);
+        }
+    }
+
     /**
      * Add a node as long as it id does not exists already (vID is unique). If
      * it already exists, then simply do not add it.
@@ -344,6 +580,8 @@ public class Graph<N, E> {
     public void addNode(int vID, N v) {
         if (!nodes.containsKey(vID)) {
             nodes.put(vID, new Node(vID, v));
+            nodeIDsCache = null;
+            nodesCache = null;
         }
 
         //updates the flag for the centrality metrics
@@ -367,7 +605,10 @@ public class Graph<N, E> {
         		it.remove();
         		--edgeCounter;
         	}
+        	node.neighborIDs = null;
         	nodes.remove(vID);
+        	nodeIDsCache = null;
+        	nodesCache = null;
             //updates the flag for the centrality metrics
             metricUpdated = false;
         }
@@ -479,7 +720,7 @@ public class Graph<N, E> {
                 int v = queue.remove();
                 stack.push(v);
 
-                for (Integer w : getNeighborsIDs(v)) {
+                for (int w : nodes.get(v).neighborIDs()) {
                     if (d.get(w) < 0) {
                         queue.push(w);
                         d.put(w, d.get(v) + 1);
@@ -527,7 +768,7 @@ public class Graph<N, E> {
 
         //armazena o grau dos n�s
         for (Integer i : vertices) {
-            rs.put(i, (float) this.getNeighbors(i).size());
+            rs.put(i, (float) this.degree(i));
         }
 
         //normalize the result
@@ -574,7 +815,7 @@ public class Graph<N, E> {
         }
 
         HashMap<Integer, Float> rs = new HashMap<Integer, Float>();
-        for (Integer vID : getNodesIDs()) {
+        for (int vID : nodeIDs()) {
             int sum = 0;
             // bfs for each node
             Set<Integer> explored = new HashSet<Integer>();
@@ -587,7 +828,7 @@ public class Graph<N, E> {
                 explored.add(current.nodeID);
                 sum += current.lengthFromBegin;
 
-                for (Integer n : getNeighborsIDs(current.nodeID)) {
+                for (int n : nodes.get(current.nodeID).neighborIDs()) {
                     if (!explored.contains(n)) {
                         boolean isInFrontier = false;
                         for (CcNode f : frontier) {
@@ -644,9 +885,8 @@ public class Graph<N, E> {
         while (!converged) {
             for (Integer i : nodes.keySet()) {
                 float sum = 0.0f;
-                ArrayList<Integer> neighbors = (ArrayList<Integer>) getNeighborsIDs(i);
-                for (Integer j : neighbors) {
-                    sum += old.get(j) / (float) this.getNeighborsIDs(j).size();
+                for (int j : nodes.get(i).neighborIDs()) {
+                    sum += old.get(j) / (float) this.degree(j);
                 }
                 current.put(i, ((1 - (float) alpha) / (float) nodes.keySet().size()) + alpha * sum);
 
@@ -0,0 +1,368 @@
+package moa.classifiers.sae;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Columnar buffer of instances that share the same header. Instead of retaining
+ * every Instance object, only primitive values are kept: numeric attributes in
+ * double columns, nominal attributes in float columns (indexes are exact up to 2^24)
+ * and the class value and weight of each row in their own arrays.
+ *
+ * Once the number of rows kept in heap reaches spillThreshold, subsequent rows are
+ * appended to a temporary file, which is memory-mapped when the buffer is read.
+ *
+ * Iterating over the buffer does not rebuild the original instances. A single
+ * cursor instance is refilled for every row, therefore it must be copied before
+ * it is handed to anything that may keep it (e.g. a learner with a window).
+ *
+ * When serialized, spilled rows are written along with the heap columns and a new
+ * spill file is created when the buffer is read back.
+ */
+public class InstanceBuffer implements Iterable<Instance>, Serializable {
+	private static final long serialVersionUID = 1L;
+	/* Initial number of rows allocated for the heap columns */
+	private static final int INITIAL_CAPACITY = 64;
+	/* Number of rows staged in memory before they are written to the spill file */
+	private static final int SPILL_BATCH_ROWS = 256;
+
+	/* Header shared by all buffered instances (taken from the first instance added, may be null) */
+	protected Instances header;
+	protected boolean initialized;
+	protected int numAttributes;
+	protected int classIndex;
+	/* For each attribute, its column index within numericColumns or nominalColumns
+	 * (-1 for the class attribute). */
+	protected int[] columnOf;
+	protected boolean[] nominal;
+	protected int numNumeric, numNominal;
+
+	/* Heap columns. numericColumns[c][row], nominalColumns[c][row] */
+	protected double[][] numericColumns;
+	protected float[][] nominalColumns;
+	protected double[] classes;
+	protected double[] weights;
+	/* Rows stored in heap */
+	protected int size;
+	/* Maximum number of rows stored in heap (0 = never spill) */
+	protected int spillThreshold;
+
+	/* Spill file (rows beyond spillThreshold), stored row by row from offset 0:
+	 * weight, class, numeric values (doubles) and nominal values (floats).
+	 * Row r is always at r * rowBytes, bytes beyond spilledRows are stale (see clear). */
+	protected transient File spillFile;
+	protected transient RandomAccessFile spillRaf;
+	protected transient FileChannel spillChannel;
+	protected transient ByteBuffer spillStage;
+	protected int rowBytes;
+	protected int spilledRows;
+
+	/**
+	 * @param spillThreshold maximum number of rows kept in heap before spilling to a
+	 * memory-mapped temporary file. Use 0 to always keep every row in heap. */
+	public InstanceBuffer(int spillThreshold) {
+		this.spillThreshold = spillThreshold;
+	}
+
+	/**
+	 * Append the values of an instance to the buffer. The instance itself is not retained.
+	 * @param instance */
+	public void add(Instance instance) {
+		if(!initialized)
+			init(instance);
+
+		if(spillThreshold > 0 && size >= spillThreshold && spill(instance))
+			return;
+
+		if(size == classes.length)
+			grow();
+		for(int a = 0 ; a < numAttributes ; ++a) {
+			if(a == classIndex)
+				continue;
+			if(nominal[a])
+				nominalColumns[columnOf[a]][size] = (float) instance.value(a);
+			else
+				numericColumns[columnOf[a]][size] = instance.value(a);
+		}
+		classes[size] = instance.classValue();
+		weights[size] = instance.weight();
+		++size;
+	}
+
+	/**
+	 * Remove all rows. The header and the allocated columns are kept for reuse. */
+	public void clear() {
+		size = 0;
+		spilledRows = 0;
+		/* The spill file is overwritten from offset 0, it is not truncated since a cursor
+		 * may still have it mapped (truncating a mapped file fails on some platforms) */
+		if(spillChannel != null)
+			spillStage.clear();
+	}
+
+	/**
+	 * Release the spill file (if any). The buffer may still be used afterwards,
+	 * in which case a new spill file is created when needed. */
+	public void close() {
+		if(spillChannel != null) {
+			try {
+				spillChannel.close();
+				spillRaf.close();
+			} catch (IOException e) {
+				System.out.println("Not possible to close instance buffer spill file " +
+						e.getMessage() + "\n");
+				e.printStackTrace();
+			}
+			spillFile.delete();
+			spillChannel = null;
+			spillRaf = null;
+			spillFile = null;
+			spilledRows = 0;
+		}
+	}
+
+	/**
+	 * Stream the buffered rows (heap rows first, then spilled rows) in insertion order.
+	 * The returned instance is the same object on every call to next(), copy it to keep it. */
+	@Override
+	public Iterator<Instance> iterator() {
+		return new Cursor();
+	}
+
+	/* Accessors */
+	public int size() {
+		return size + spilledRows;
+	}
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	public int getSpilledRows() {
+		return spilledRows;
+	}
+
+	private void init(Instance instance) {
+		header = instance.dataset();
+		numAttributes = instance.numAttributes();
+		classIndex = instance.classIndex();
+		columnOf = new int[numAttributes];
+		nominal = new boolean[numAttributes];
+		numNumeric = 0;
+		numNominal = 0;
+		for(int a = 0 ; a < numAttributes ; ++a) {
+			if(a == classIndex)
+				columnOf[a] = -1;
+			else if(header != null && header.attribute(a).isNominal()) {
+				nominal[a] = true;
+				columnOf[a] = numNominal++;
+			}
+			else
+				columnOf[a] = numNumeric++;
+		}
+		int capacity = spillThreshold > 0 ? Math.min(spillThreshold, INITIAL_CAPACITY) : INITIAL_CAPACITY;
+		numericColumns = new double[numNumeric][capacity];
+		nominalColumns = new float[numNominal][capacity];
+		classes = new double[capacity];
+		weights = new double[capacity];
+		rowBytes = 8 * 2 + 8 * numNumeric + 4 * numNominal;
+		initialized = true;
+	}
+
+	private void grow() {
+		int capacity = classes.length * 2;
+		if(spillThreshold > 0)
+			capacity = Math.min(capacity, spillThreshold);
+		for(int c = 0 ; c < numNumeric ; ++c) {
+			double[] column = new double[capacity];
+			System.arraycopy(numericColumns[c], 0, column, 0, size);
+			numericColumns[c] = column;
+		}
+		for(int c = 0 ; c < numNominal ; ++c) {
+			float[] column = new float[capacity];
+			System.arraycopy(nominalColumns[c], 0, column, 0, size);
+			nominalColumns[c] = column;
+		}
+		double[] newClasses = new double[capacity], newWeights = new double[capacity];
+		System.arraycopy(classes, 0, newClasses, 0, size);
+		System.arraycopy(weights, 0, newWeights, 0, size);
+		classes = newClasses;
+		weights = newWeights;
+	}
+
+	/**
+	 * Append one row to the spill file. If the spill file cannot be used, spilling is
+	 * disabled and the row is kept in heap instead.
+	 * @return whether the row was spilled */
+	private boolean spill(Instance instance) {
+		try {
+			if(spillChannel == null)
+				openSpill();
+			if(spillStage.remaining() < rowBytes)
+				flushSpill();
+			spillStage.putDouble(instance.weight());
+			spillStage.putDouble(instance.classValue());
+			for(int a = 0 ; a < numAttributes ; ++a)
+				if(a != classIndex && !nominal[a])
+					spillStage.putDouble(instance.value(a));
+			for(int a = 0 ; a < numAttributes ; ++a)
+				if(a != classIndex && nominal[a])
+					spillStage.putFloat((float) instance.value(a));
+			++spilledRows;
+			return true;
+		} catch (IOException e) {
+			System.out.println("Not possible to spill instance buffer, keeping instances in memory " +
+					e.getMessage() + "\n");
+			e.printStackTrace();
+			spillThreshold = 0;
+			return false;
+		}
+	}
+
+	private void openSpill() throws IOException {
+		spillFile = File.createTempFile("sae-instances", ".bin");
+		spillFile.deleteOnExit();
+		spillRaf = new RandomAccessFile(spillFile, "rw");
+		spillChannel = spillRaf.getChannel();
+		spillStage = ByteBuffer.allocate(rowBytes * SPILL_BATCH_ROWS);
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		if(spilledRows == 0)
+			return;
+		flushSpill();
+		ByteBuffer rows = ByteBuffer.allocate(rowBytes * SPILL_BATCH_ROWS);
+		long position = 0, end = (long) spilledRows * rowBytes;
+		while(position < end) {
+			rows.clear();
+			rows.limit((int) Math.min(rows.capacity(), end - position));
+			while(rows.hasRemaining())
+				position += spillChannel.read(rows, position);
+			out.write(rows.array(), 0, rows.limit());
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if(spilledRows == 0)
+			return;
+		openSpill();
+		byte[] rows = new byte[spillStage.capacity()];
+		long position = 0, end = (long) spilledRows * rowBytes;
+		while(position < end) {
+			int length = (int) Math.min(rows.length, end - position);
+			in.readFully(rows, 0, length);
+			ByteBuffer buffer = ByteBuffer.wrap(rows, 0, length);
+			while(buffer.hasRemaining())
+				position += spillChannel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Write the staged rows, which are the last rows spilled, at their offset. */
+	private void flushSpill() throws IOException {
+		long position = (long) spilledRows * rowBytes - spillStage.position();
+		spillStage.flip();
+		while(spillStage.hasRemaining())
+			position += spillChannel.write(spillStage, position);
+		spillStage.clear();
+	}
+
+	/**
+	 * Iterates over heap rows and then over the spill file, which is mapped in windows
+	 * so that files larger than 2GB can be read as well. */
+	private class Cursor implements Iterator<Instance> {
+		private final int total = size();
+		private int row = 0;
+		private final Instance current;
+		private MappedByteBuffer window;
+		private int windowEnd;
+
+		Cursor() {
+			current = new DenseInstance(numAttributes);
+			current.setDataset(header);
+			if(spilledRows > 0) {
+				try {
+					flushSpill();
+				} catch (IOException e) {
+					System.out.println("Not possible to flush instance buffer spill file " +
+							e.getMessage() + "\n");
+					e.printStackTrace();
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return row < total;
+		}
+
+		@Override
+		public Instance next() {
+			if(!hasNext())
+				throw new NoSuchElementException();
+			if(row < size)
+				fromColumns(row);
+			else
+				fromSpill(row - size);
+			++row;
+			return current;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void fromColumns(int r) {
+			for(int a = 0 ; a < numAttributes ; ++a) {
+				if(a == classIndex)
+					current.setValue(a, classes[r]);
+				else if(nominal[a])
+					current.setValue(a, nominalColumns[columnOf[a]][r]);
+				else
+					current.setValue(a, numericColumns[columnOf[a]][r]);
+			}
+			current.setWeight(weights[r]);
+		}
+
+		private void fromSpill(int r) {
+			if(window == null || r >= windowEnd)
+				map(r);
+			current.setWeight(window.getDouble());
+			if(classIndex >= 0)
+				current.setValue(classIndex, window.getDouble());
+			else
+				window.getDouble();
+			for(int a = 0 ; a < numAttributes ; ++a)
+				if(a != classIndex && !nominal[a])
+					current.setValue(a, window.getDouble());
+			for(int a = 0 ; a < numAttributes ; ++a)
+				if(a != classIndex && nominal[a])
+					current.setValue(a, window.getFloat());
+		}
+
+		private void map(int r) {
+			int rowsPerWindow = Math.max(1, Integer.MAX_VALUE / rowBytes);
+			int rows = Math.min(rowsPerWindow, spilledRows - r);
+			try {
+				window = spillChannel.map(FileChannel.MapMode.READ_ONLY, (long) r * rowBytes, (long) rows * rowBytes);
+			} catch (IOException e) {
+				throw new IllegalStateException("Not possible to map instance buffer spill file", e);
+			}
+			windowEnd = r + rows;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package moa.classifiers.sae;
+
+import java.util.Arrays;
+
+/**
+ * Adapts the number of experts to a latency target. The time spent on each instance
+ * (testing and training, or only testing, see SAE2) is recorded in a sliding window of the
+ * last windowSize instances. At every network update the 99th percentile of the window is
+ * compared to the target: above it, the expert limit shrinks in proportion to the excess
+ * (at least by one expert), since the cost of an instance grows roughly linearly with the
+ * number of experts; well below it (GROW_BELOW of the target), the limit grows by one, up
+ * to MaxExperts. The window restarts whenever the limit changes, so that the next decision
+ * only uses instances seen with the current limit. Network updates themselves are not
+ * part of the latency, they happen once per period.
+ */
+public class LatencyController {
+	/* The limit grows only if the 99th percentile is below this fraction of the target */
+	private static final double GROW_BELOW = 0.8;
+
+	/* Target 99th percentile latency */
+	protected final long targetNanos;
+	/* Latency of the last instances (circular buffer), number of latencies in it and next position */
+	protected final long[] window;
+	protected int count, next;
+	/* Current expert limit (-1 = not decided yet, i.e. MaxExperts) */
+	protected int limit = -1;
+
+	/**
+	 * @param targetNanos target 99th percentile latency per instance
+	 * @param windowSize number of instances in the sliding window */
+	public LatencyController(long targetNanos, int windowSize) {
+		this.targetNanos = targetNanos;
+		this.window = new long[Math.max(1, windowSize)];
+	}
+
+	/**
+	 * Record the time spent on an instance.
+	 * @param nanos */
+	public void record(long nanos) {
+		window[next] = nanos;
+		next = (next + 1) % window.length;
+		if(count < window.length)
+			++count;
+	}
+
+	/**
+	 * @return 99th percentile of the latencies in the window (0 if there are none) */
+	public long getP99() {
+		if(count == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(window, count);
+		Arrays.sort(sorted);
+		return sorted[(int) Math.ceil(count * 0.99) - 1];
+	}
+
+	/**
+	 * Decide the expert limit for the next period.
+	 * @param maxExperts upper bound (MaxExperts)
+	 * @param experts number of experts in the network during the period
+	 * @return expert limit, between 1 and maxExperts */
+	public int adjust(int maxExperts, long experts) {
+		int previous = limit < 0 ? maxExperts : Math.min(limit, maxExperts);
+		limit = previous;
+		if(count > 0) {
+			long p99 = getP99();
+			if(p99 > targetNanos) {
+				/* The latency measured corresponds to the experts that were in the network */
+				int current = (int) Math.min(previous, Math.max(1, experts));
+				limit = Math.min(current - 1, (int) (current * targetNanos / (double) p99));
+			}
+			else if(p99 < targetNanos * GROW_BELOW)
+				limit = previous + 1;
+			limit = Math.max(1, Math.min(maxExperts, limit));
+		}
+		if(limit != previous) {
+			count = 0;
+			next = 0;
+		}
+		return limit;
+	}
+
+	/**
+	 * @return expert limit decided at the last update (-1 if none yet) */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return latencies in the window, oldest first */
+	public long[] getLatencies() {
+		long[] latencies = new long[count];
+		int first = (next - count + window.length) % window.length;
+		for(int i = 0 ; i < count ; ++i)
+			latencies[i] = window[(first + i) % window.length];
+		return latencies;
+	}
+
+	/**
+	 * Replace the state by a saved one (see NetworkCheckpoint). Only the newest latencies
+	 * are kept if there are more than the window holds.
+	 * @param limit expert limit (-1 = not decided yet)
+	 * @param latencies oldest first */
+	public void restore(int limit, long[] latencies) {
+		this.limit = limit;
+		count = 0;
+		next = 0;
+		for(int i = Math.max(0, latencies.length - window.length) ; i < latencies.length ; ++i)
+			record(latencies[i]);
+	}
+}
@@ -0,0 +1,99 @@
+package moa.classifiers.sae;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+
+import moa.classifiers.Classifier;
+import moa.options.OptionHandler;
+
+/**
+ * Creates untrained learners equivalent to a prepared prototype (e.g. the base learner of
+ * SAE2 or SFNClassifier).
+ *
+ * Classifier.copy() is a deep copy through serialization. Instead, learners are built as a
+ * new object of the prototype class with the prototype options, prepared for the same model
+ * context, which skips the serialization round trip. If this is not possible (e.g. the class
+ * has no public constructor without arguments) learners are copied from the prototype.
+ *
+ * Optionally, learners of removed experts are recycled (see recycle): they are reset and
+ * reused instead of creating new ones. Only learners whose resetLearning() discards
+ * everything learnt should be recycled, thus recycling is disabled by default.
+ */
+public class LearnerFactory implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/* Prepared and untrained learner */
+	protected final Classifier prototype;
+	/* Options of the prototype (CLI string) */
+	protected final String options;
+	/* Whether learners are built by reflection, set to false as soon as it fails */
+	protected boolean reflective;
+	/* Maximum number of learners kept for reuse (0 = no recycling) */
+	protected int poolSize;
+	protected transient ArrayDeque<Classifier> pool;
+
+	/**
+	 * @param prototype prepared base learner, it is never trained
+	 * @param poolSize maximum number of learners kept for reuse (0 = no recycling) */
+	public LearnerFactory(Classifier prototype, int poolSize) {
+		this.prototype = prototype;
+		this.poolSize = poolSize;
+		this.reflective = prototype instanceof OptionHandler;
+		this.options = reflective ? ((OptionHandler) prototype).getOptions().getAsCLIString() : null;
+	}
+
+	/**
+	 * @return an untrained learner, equivalent to a copy of the prototype */
+	public Classifier newLearner() {
+		if(pool != null && !pool.isEmpty())
+			return pool.poll();
+		if(reflective) {
+			try {
+				return instantiate();
+			} catch (Exception e) {
+				/* Learners of this class can not be built by reflection, copies are used from now on */
+				reflective = false;
+				System.out.println("Not possible to instantiate " + prototype.getClass().getName() + 
+						", copying the base learner instead " + e.getMessage() + "\n");
+				e.printStackTrace();
+			}
+		}
+		return prototype.copy();
+	}
+
+	/**
+	 * Keep the learner of a removed expert for reuse. The learner is reset here, it must not
+	 * be used by anyone else afterwards.
+	 * @param learner */
+	public void recycle(Classifier learner) {
+		if(poolSize <= 0 || learner == null || learner.getClass() != prototype.getClass())
+			return;
+		if(pool == null)
+			pool = new ArrayDeque<Classifier>(poolSize);
+		if(pool.size() < poolSize) {
+			learner.resetLearning();
+			pool.add(learner);
+		}
+	}
+
+	/**
+	 * @param poolSize maximum number of learners kept for reuse (0 = no recycling) */
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+		while(pool != null && pool.size() > Math.max(0, poolSize))
+			pool.poll();
+	}
+
+	public Classifier getPrototype() {
+		return prototype;
+	}
+
+	protected Classifier instantiate() throws Exception {
+		Classifier learner = prototype.getClass().getDeclaredConstructor().newInstance();
+		((OptionHandler) learner).getOptions().setViaCLIString(options);
+		learner.setModelContext(prototype.getModelContext());
+		/* Preparing an untrained learner also resets it */
+		((OptionHandler) learner).prepareForUse();
+		return learner;
+	}
+}
@@ -1,7 +1,10 @@
 package moa.classifiers.sae;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -10,11 +13,16 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.yahoo.labs.samoa.instances.Instance;
 
 
 import moa.classifiers.Classifier;
+import moa.classifiers.sae.remote.RemoteExpert;
+import moa.classifiers.sae.remote.RemoteExperts;
 import moa.core.MiscUtils;
 
 /**
@@ -31,7 +39,7 @@ public class Network {
 	public Graph<Integer, Long> network = new Graph<Integer, Long>();
 	/* Subnetworks are responsible for combining votes */
 	public Subnetworks subnetworks;
-	/* Expert to be added to the network. */
+	/* Expert to be added to the network (null if none was spawned this period, see reset). */
 	protected Expert candidate = null;
 	/* Expert id sequence generator */
 	protected int nextExpertID;
@@ -41,6 +49,8 @@ public class Network {
 	
 	/* Base learner set for this network. */
 	protected Classifier baseLearner;
+	/* Creates (or recycles) the learners of new experts from baseLearner */
+	protected LearnerFactory learnerFactory;
 	
 	/* Number of instances seen (reset along with network) */
 	protected int numberOfInstancesSeen;
@@ -53,14 +63,79 @@ public class Network {
 	
 	/* Pajek file project file output */
 	protected OutputPajek outputPajek = null;
+	/* Compressed network history output, replaces outputPajek (see OutputPajekDelta) */
+	protected OutputPajekDelta outputPajekDelta = null;
 	/* Measurements file (includes prominence metrics) output */
 	protected OutputNetworkMeasurements outputNetworkMeasurements = null;
+	/* HTTP endpoint serving the measurements of the last period (see NetworkMetricsServer) */
+	protected NetworkMetricsServer metricsServer = null;
+	/* Time spent on the instances of the current period (only measured if isTimed()) */
+	protected long instancesNanos;
+	/* Adapts the expert limit to a latency target (null = the limit is always maxExperts) */
+	protected LatencyController latencyController = null;
+	/* Stable periods after which experts are frozen (0 = never freeze) and how much their 
+	 * accuracy may change between periods while still considered stable (see Expert.updateFreezing) */
+	protected int freezeStablePeriods = 0;
+	protected double freezeTolerance;
+	/* Early pruning (see checkDoomed): whether it is enabled, whether doomed experts stop 
+	 * predicting too, the thresholds of the next update, the probability of a wrong 
+	 * sequential test (0 = worst case bounds) and the period length. */
+	protected boolean earlyPruning = false;
+	protected boolean mutePruned;
+	protected double pruningMinE, pruningScMax, pruningConfidence;
+	protected int pruningPeriodLength;
+	/* Demand-driven candidates (see needsCandidate): whether they are enabled, the network 
+	 * accuracy below which a candidate is spawned, the drop in accuracy (w.r.t. the previous 
+	 * period) above which a candidate is spawned, and the accuracy of the previous period. */
+	protected boolean demandDrivenCandidates = false;
+	protected double spawnAccuracy, spawnAccuracyDrop;
+	protected double lastPeriodAccuracy = Double.NaN;
+	/* Trace of the predictions of every expert (null = no trace) and whether a new epoch 
+	 * must be recorded before the next instance (see recordTrace) */
+	protected TraceRecorder traceRecorder = null;
+	protected boolean traceEpochPending = true;
+	
+	/* Number of instances predicted with the previous subnetworks while the new ones are 
+	 * generated in background (0 = generate them during update). */
+	protected int topologyLag = 0;
+	/* Micro-batch of instances already tested but not yet used for training (see trainOnBlock), 
+	 * the experts at the time the block started and their predictions ([expert][instance]). */
+	protected ArrayList<Instance> block = new ArrayList<Instance>();
+	protected Expert[] blockExperts;
+	protected int[][] blockPredictions;
+	/* Contiguous index of experts used by tick(...) (null = must be rebuilt), the connection 
+	 * between the experts at each pair of positions and per instance scratch arrays 
+	 * (predictions, experts ordered by predicted class and where each class starts). */
+	protected Expert[] tickExperts = null;
+	protected Connection[][] tickConnections;
+	protected int[] tickPredictions, tickOrder, tickClassStart;
+	/* Worker processes where the learners of the experts live (null = in this process) */
+	protected RemoteExperts remote = null;
+	/* View used to score instances from other threads (null if disabled), how many 
+	 * instances between views (0 = disabled) and instances since the last view. */
+	protected volatile ScoringView scoringView = null;
+	protected int scoringViewRefresh = 0;
+	protected int instancesSinceScoringView;
 
 	public Network(Classifier baseLearner, double periodLength,
 			boolean doNotCreateNetworkFile, boolean doNotCreateMeasurementsFile, 
 			String pajekFileName, String measurementsFileName, String combinationClassName, 
 			String votingClassName, Random random) {
+		this(baseLearner, periodLength, doNotCreateNetworkFile, doNotCreateMeasurementsFile, 
+				pajekFileName, measurementsFileName, combinationClassName, votingClassName, random, null);
+	}
+	
+	/**
+	 * Same as the other constructor, but the learners of the experts live in worker 
+	 * processes (see RemoteExperts). Only predicted classes come back from the workers, 
+	 * connections, subnetworks and voting are kept in this process. 
+	 * @param remote worker processes (null = learners live in this process) */
+	public Network(Classifier baseLearner, double periodLength,
+			boolean doNotCreateNetworkFile, boolean doNotCreateMeasurementsFile, 
+			String pajekFileName, String measurementsFileName, String combinationClassName, 
+			String votingClassName, Random random, RemoteExperts remote) {
 		
+		this.remote = remote;
 		Date now = Calendar.getInstance().getTime();
 		if(! doNotCreateNetworkFile)
 			outputPajek = new OutputPajek(pajekFileName, now);
@@ -68,12 +143,13 @@ public class Network {
 			outputNetworkMeasurements = new OutputNetworkMeasurements(measurementsFileName, now);
 		
 		this.baseLearner = baseLearner;
+		this.learnerFactory = new LearnerFactory(baseLearner, 0);
 		/* Create the connections object. parameter 'experts' is a reference to this.experts. */
 		connections = new Connections(experts);
 		
 		/* Create the first expert and the first candidate. */
-		Expert first = new Expert(this.nextExpertID++, baseLearner, 0, false);
-		candidate = new Expert(this.nextExpertID++, baseLearner, (long) periodLength, true);
+		Expert first = newExpert(this.nextExpertID++, 0, false);
+		candidate = newExpert(this.nextExpertID++, (long) periodLength, true);
 		/* The first expert goes into the Graph, therefore it will not only be trained
 		 * during the first period, but will also be used for predictions. */
 		experts.put(first.getID(), first);
@@ -86,17 +162,40 @@ public class Network {
 		subnetworks = new Subnetworks(experts, network, combinationClassName, votingClassName, random);
 	}
 	
-	/** Reset classification statistics from last period and add a new candidate */
+	/** Reset classification statistics from last period and add a new candidate 
+	 * (if needed, see needsCandidate) */
 	public void reset(int periodLength, long ticks) {
+		double accuracy = getCorrectlyClassifiedRatio();
+		boolean spawn = !demandDrivenCandidates || needsCandidate(accuracy);
+		lastPeriodAccuracy = accuracy;
 		correctlyClassified = 0;
 		numberOfInstancesSeen = 0;
-		candidate = new Expert(this.nextExpertID++, baseLearner, ticks, true);
-		experts.put(candidate.getID(), candidate);
-		connections.addAllConnections(candidate);
+		candidate = null;
+		if(spawn) {
+			candidate = newExpert(this.nextExpertID++, ticks, true);
+			experts.put(candidate.getID(), candidate);
+			connections.addAllConnections(candidate);
+		}
 		
-		for(Expert e : experts.values())
+		for(Expert e : experts.values()) {
+			/* The candidate always trains */
+			if(freezeStablePeriods > 0 && !e.isCandidate())
+				e.updateFreezing(periodLength, freezeStablePeriods, freezeTolerance);
 			e.reset(periodLength);
+		}
 		connections.reset();
+		invalidateTickIndex();
+		traceEpochPending = true;
+	}
+	
+	/**
+	 * A candidate is needed if the network accuracy during the last period was below 
+	 * spawnAccuracy or dropped more than spawnAccuracyDrop w.r.t. the previous period. 
+	 * @param accuracy network accuracy during the last period */
+	protected boolean needsCandidate(double accuracy) {
+		if(Double.isNaN(accuracy) || accuracy < spawnAccuracy)
+			return true;
+		return !Double.isNaN(lastPeriodAccuracy) && lastPeriodAccuracy - accuracy > spawnAccuracyDrop;
 	}
 	
 	/** Update network structure (create/remove experts, extract measurements, 
@@ -111,47 +210,91 @@ public class Network {
 		if(outputPajek != null)
 			//outputPajek.addNetwork(network, experts, periodLength, ticks);
 			outputPajek.addNetwork(connections, periodLength, ticks);
+		if(outputPajekDelta != null)
+			outputPajekDelta.addNetwork(connections, periodLength, ticks);
 		
+		long start = System.nanoTime();
+		/* Expert limit for the next period */
+		int expertLimit = latencyController != null ? 
+				latencyController.adjust(maxExperts, network.getNodesQuantity()) : maxExperts;
 		if(outputNetworkMeasurements != null) {
 			extractMeasurements();
 			outputNetworkMeasurements.addMeasurements(period, ticks, density, 
 					avgDegree, network.getNodesQuantity(), network.getEdgesQuantity(), 
 					subnetworks.getSubnetworksSize(), subnetworks.getNetTieCounter(), 
 					getCorrectlyClassifiedRatio(), removedByPerformanceCounter, 
-					removedByRedundancyCounter, candidate.getCorrectlyClassifiedRatio(periodLength));
-			removedByPerformanceCounter = 0;
+					removedByRedundancyCounter, getCandidateAccuracy(periodLength), 
+					expertLimit);
 		}
+		/* Measurements are taken before the network changes, the snapshot is published 
+		 * once the timings of the update are known. */
+		NetworkMetricsServer.Snapshot measured = null;
+		long[] phases = null;
+		if(metricsServer != null) {
+			extractMeasurements();
+			phases = new long[NetworkMetricsServer.PHASES.length];
+			measured = new NetworkMetricsServer.Snapshot(period, ticks, density, avgDegree, 
+					network.getNodesQuantity(), network.getEdgesQuantity(), 
+					subnetworks.getSubnetworksSize(), subnetworks.getNetTieCounter(), 
+					getCorrectlyClassifiedRatio(), removedByPerformanceCounter, 
+					removedByRedundancyCounter, getCandidateAccuracy(periodLength));
+			phases[0] = System.nanoTime() - start;
+		}
+		if(outputNetworkMeasurements != null || metricsServer != null)
+			removedByPerformanceCounter = 0;
+		invalidateTickIndex();
+		start = System.nanoTime();
 		removeExperts(minE, scMax, periodLength);
-		addExpert(maxExperts, ticks, periodLength, Ier);
+		if(phases != null)
+			phases[1] = System.nanoTime() - start;
+		start = System.nanoTime();
+		addExpert(expertLimit, ticks, periodLength, Ier);
+		if(phases != null)
+			phases[2] = System.nanoTime() - start;
+		start = System.nanoTime();
 		connections.update(network, periodLength, scMin);
-		subnetworks.update();
+		if(phases != null)
+			phases[3] = System.nanoTime() - start;
+		start = System.nanoTime();
+		subnetworks.scheduleUpdate(topologyLag);
+		if(phases != null) {
+			phases[4] = System.nanoTime() - start;
+			metricsServer.publish(measured.withTimings(instancesNanos, phases));
+		}
+		instancesNanos = 0;
+		if(scoringViewRefresh > 0)
+			publishScoringView(periodLength, ticks);
 	}
 
 	/**  Check if it is necessary to add a new Expert to the network. 
 	 * 1. MaxExperts: if total number of active (used to predict "test" instances) experts (in graph) 
 	 * is equal to maxExperts parameter, then replace expert with the lowest accuracy during last period. Otherwise
 	 * just add candidate to the graph. This approach may add candidates that actually decrease the network accuracy. 
+	 * If maxExperts shrank (see LatencyController), experts with the lowest accuracy are replaced until the 
+	 * network fits, even if there is no candidate. 
 	*/
 	protected void addExpert(int maxExperts, long ticks, 
 			int periodLength, ArrayList<Instance> Ier) {
 		/* Checks if there is a candidate to be added. The candidate could have been removed 
 		 * from "experts" in removeExperts(...), thus it is necessary to check if it still exists before continuing. */
-		if(experts.get(candidate.getID()) != null) {
-			assert network.getNodesQuantity() <= maxExperts;
-			/* Check if network size (vertex count) has reach its maximum value (maxExperts) */
-			if(network.getNodesQuantity() == maxExperts) {
-				List<Expert> expertsCopy = new ArrayList<Expert>(experts.values());
-			    expertsCopy.remove(candidate);
-			    /* Sort experts in descending order according to their average accuracy obtained during last period */
-				Collections.sort(expertsCopy);
-				Expert toBeRemoved = expertsCopy.get(expertsCopy.size() - 1);
-				
-				/* Remove worst performer */
-				experts.remove(toBeRemoved.getID());
-				network.removeNode(toBeRemoved.getID());
-				connections.removeAllConnections(toBeRemoved.getID());
+		boolean hasCandidate = candidate != null && experts.get(candidate.getID()) != null;
+		/* Check if network size (vertex count) has reach its maximum value (maxExperts) */
+		long room = hasCandidate ? maxExperts - 1 : maxExperts;
+		if(network.getNodesQuantity() > room) {
+			List<Expert> expertsCopy = new ArrayList<Expert>(experts.values());
+		    expertsCopy.remove(candidate);
+		    /* Sort experts in descending order according to their average accuracy obtained during last period */
+			Collections.sort(expertsCopy);
+			
+			/* Remove worst performers */
+			while(network.getNodesQuantity() > room) {
+				Expert toBeRemoved = expertsCopy.remove(expertsCopy.size() - 1);
+				removeExpert(toBeRemoved.getID());
 			}
-			/* Reinforce training on incorrectly classified instances */
+		}
+		if(hasCandidate) {
+			/* Reinforce training on incorrectly classified instances. Ier is empty if 
+			 * the candidate was reinforced during the period (see reinforceCandidate). */
 			candidate.train(Ier);
 			candidate.candidate = false;
 			/* Add candidate to graph */
@@ -177,9 +320,7 @@ public class Network {
 		
 		for(Expert e : expertsCopy) {
 			if(e.getCorrectlyClassifiedRatio(periodLength) < minE) {
-				experts.remove(e.getID());
-				network.removeNode(e.getID());
-				connections.removeAllConnections(e.getID());
+				removeExpert(e.getID());
 				++removedByPerformanceCounter;
 			}
 		}
@@ -203,11 +344,136 @@ public class Network {
 			System.out.print(i + " "); */
 		
 		removedByRedundancyCounter = toBeRemoved.size();
-		for(Integer i : toBeRemoved) {
-			experts.remove(i);
-			network.removeNode(i);
-			connections.removeAllConnections(i);
+		for(Integer i : toBeRemoved)
+			removeExpert(i);
+	}
+	
+	/**
+	 * Remove an expert from the experts HashMap, the graph and its connections. 
+	 * @param ID */
+	protected void removeExpert(int ID) {
+		Expert removed = experts.remove(ID);
+		network.removeNode(ID);
+		connections.removeAllConnections(ID);
+		if(remote != null)
+			remote.release(ID);
+		else if(removed != null)
+			learnerFactory.recycle(removed.getLearner());
+	}
+	
+	/**
+	 * Create an expert trained on nothing, using the base learner. 
+	 * @param ID
+	 * @param createdOn
+	 * @param candidate */
+	protected Expert newExpert(int ID, long createdOn, boolean candidate) {
+		if(remote != null)
+			return new RemoteExpert(remote, ID, baseLearner, createdOn, candidate);
+		return new Expert(ID, learnerFactory.newLearner(), createdOn, candidate, 0, 1.0, -1);
+	}
+	
+	/**
+	 * Reuse the learners of (at most poolSize) removed experts for new experts, instead 
+	 * of creating new ones (see LearnerFactory).
+	 * @param poolSize 0 = no recycling */
+	public void setLearnerRecycling(int poolSize) {
+		learnerFactory.setPoolSize(poolSize);
+	}
+	
+	/**
+	 * Release resources held by the network (i.e. worker processes). */
+	public void close() {
+		if(remote != null)
+			remote.close();
+		if(outputPajek != null) {
+			outputPajek.close();
+			outputPajek = null;
+		}
+		if(outputNetworkMeasurements != null) {
+			outputNetworkMeasurements.close();
+			outputNetworkMeasurements = null;
 		}
+		if(outputPajekDelta != null)
+			outputPajekDelta.close();
+		if(metricsServer != null)
+			metricsServer.close();
+		if(traceRecorder != null)
+			traceRecorder.close();
+	}
+	
+	/**
+	 * Publish the measurements of every period to an HTTP endpoint (see NetworkMetricsServer).
+	 * @param metricsServer */
+	public void setMetricsServer(NetworkMetricsServer metricsServer) {
+		this.metricsServer = metricsServer;
+	}
+	
+	/**
+	 * @return whether the time spent on each instance should be reported (see addInstanceNanos) */
+	public boolean isTimed() {
+		return metricsServer != null || latencyController != null;
+	}
+	
+	/**
+	 * Add time spent testing and training on an instance of the current period.
+	 * @param nanos */
+	public void addInstanceNanos(long nanos) {
+		instancesNanos += nanos;
+		if(latencyController != null)
+			latencyController.record(nanos);
+	}
+	
+	/**
+	 * Report the time spent on a prediction that is not part of training (see getVotesForInstance).
+	 * @param nanos */
+	public void recordLatency(long nanos) {
+		if(latencyController != null)
+			latencyController.record(nanos);
+	}
+	
+	/**
+	 * Adapt the expert limit to a latency target at every update (see LatencyController). 
+	 * Latencies are reported through addInstanceNanos and recordLatency.
+	 * @param latencyController null = the limit is always maxExperts */
+	public void setLatencyController(LatencyController latencyController) {
+		this.latencyController = latencyController;
+	}
+	
+	/**
+	 * Record the predictions of every expert on every instance (see TraceRecorder).
+	 * @param traceRecorder */
+	public void setTraceRecorder(TraceRecorder traceRecorder) {
+		this.traceRecorder = traceRecorder;
+	}
+	
+	/**
+	 * Add an instance to the trace (if any). It must be called once every expert predicted 
+	 * the instance (i.e. after test(...) or tick(...)). 
+	 * @param instance
+	 * @param periodLength
+	 * @param ticks */
+	public void recordTrace(Instance instance, int periodLength, long ticks) {
+		if(traceRecorder == null)
+			return;
+		try {
+			if(traceEpochPending) {
+				traceRecorder.startEpoch(ticks, periodLength, instance.numClasses(), experts.values());
+				traceEpochPending = false;
+			}
+			traceRecorder.recordTick((int) instance.classValue());
+		} catch (IOException e) {
+			System.out.println("Not possible to write to TRACE file, tracing stops " + e.getMessage() + "\n");
+			e.printStackTrace();
+			traceRecorder.close();
+			traceRecorder = null;
+		}
+	}
+	
+	/**
+	 * Write the network history as deltas (see OutputPajekDelta) instead of a pajek project.
+	 * @param outputPajekDelta */
+	public void setOutputPajekDelta(OutputPajekDelta outputPajekDelta) {
+		this.outputPajekDelta = outputPajekDelta;
 	}
 
 	/** 
@@ -218,6 +484,19 @@ public class Network {
 		connections.updateSimilarities(instance);
 	}
 	
+	/**
+	 * Reinforce the candidate training on an instance incorrectly classified by the network
+	 * as soon as it happens. It spreads along the period the training that addExpert(...) 
+	 * otherwise performs at once on Ier, thus Ier should not receive this instance. 
+	 * The model is not the same: the candidate predicts the rest of the period with a learner 
+	 * already reinforced, which changes its accuracy, the Sc of its connections and therefore 
+	 * whether removeExperts(...) removes it at the update.
+	 * @param instance */
+	public void reinforceCandidate(Instance instance) {
+		if(candidate != null && !candidate.isDoomed())
+			candidate.train(instance);
+	}
+	
 	/**
 	 * Update correctly classified counters
 	 * @param instance */
@@ -239,14 +518,351 @@ public class Network {
 			experts.values().iterator().next().train(instance);
 		else {
 			for(Expert e : experts.values()) {
+				/* Weights are drawn for frozen experts too, so that the random sequence 
+				 * does not depend on which experts are frozen */
 				int k = MiscUtils.poisson(1.0, random);
-				if (k > 0) {
+				if (k > 0 && isTrainable(e, numberOfInstancesSeen)) {
 					Instance weightedInst = (Instance) instance.copy();
 					weightedInst.setWeight(instance.weight() * k);
 					e.train(weightedInst);
 				}
 			}
 		}
+		subnetworks.instanceSeen();
+		if(earlyPruning && numberOfInstancesSeen % pruningInterval() == 0)
+			checkDoomed();
+	}
+	
+	/**
+	 * @param e
+	 * @param instancesSeen instances seen during the current period
+	 * @return false if the expert is frozen (after checking whether it should be unfrozen) */
+	protected boolean isTrainable(Expert e, int instancesSeen) {
+		if(e.isDoomed())
+			return false;
+		return !e.isFrozen() || !e.checkFrozen(instancesSeen, freezeTolerance);
+	}
+	
+	/**
+	 * @return instances between checks of early pruning (1% of the period) */
+	protected int pruningInterval() {
+		return Math.max(1, pruningPeriodLength / 100);
+	}
+	
+	/**
+	 * Doom experts that removeExperts(...) is expected to remove at the end of the period 
+	 * (see Expert.doom): 
+	 * 1. Performance: even if it classifies correctly as many remaining instances as the 
+	 * upper bound allows, its accuracy stays below MinE. 
+	 * 2. Redundancy: it is the first expert of a connection whose Sc reaches ScMax even with 
+	 * as few same actions in the remaining instances as the lower bound allows. 
+	 * Since its predictions change once it stops training (or predicting), an expert is only 
+	 * doomed if it cannot be the best performer (another expert already classified correctly 
+	 * more instances than it possibly will) and every connection where it is the second 
+	 * expert (which decides whether the first one is redundant) is also decided. 
+	 * Removals are still decided by removeExperts(...) alone. 
+	 * With pruningConfidence = 0 (the default) the bounds are worst case bounds, thus doomed 
+	 * experts are certainly removed, removals are the same as without early pruning and doomed 
+	 * experts may be muted. Otherwise the bounds are Hoeffding bounds, an approximation: 
+	 * pruningConfidence is split among every bound of every check of the period (union bound), 
+	 * but the bounds assume the remaining predictions behave as the ones so far, which does 
+	 * not hold once an expert stops training. Experts doomed by mistake train less, thus 
+	 * removals may differ from a run without early pruning. Doomed experts only stop training 
+	 * and they train again as soon as the bounds no longer doom them. */
+	protected void checkDoomed() {
+		int seen = numberOfInstancesSeen;
+		int length = pruningPeriodLength;
+		int remaining = Math.max(0, length - seen);
+		boolean exact = pruningConfidence <= 0.0;
+		/* Deviation of the Hoeffding bounds: one upper bound per expert and two bounds per connection */
+		double deviation = exact || seen == 0 ? 0.0 : 
+				hoeffding(seen, experts.size() + 2 * connections.getConnections().size());
+		
+		/* Highest count of correctly classified instances so far (they can only grow) */
+		int bestCorrect = 0;
+		for(Expert e : experts.values())
+			bestCorrect = Math.max(bestCorrect, e.getCorrectlyClassified());
+		
+		Set<Integer> redundant = new TreeSet<Integer>();
+		Set<Integer> undecided = new TreeSet<Integer>();
+		for(Connection c : connections.getConnections().values()) {
+			/* Worst case dooms are final, the connections of such experts no longer matter */
+			if(exact && c.getFirst().isDoomed())
+				continue;
+			if(lowerBound(c.sameActions, seen, remaining, deviation) / (double) length >= pruningScMax)
+				redundant.add(c.getFirst().getID());
+			else if(upperBound(c.sameActions, seen, remaining, deviation) / (double) length >= pruningScMax)
+				undecided.add(c.getSecond().getID());
+		}
+		
+		for(Expert e : experts.values()) {
+			if(exact && e.isDoomed())
+				continue;
+			double maxCorrect = upperBound(e.getCorrectlyClassified(), seen, remaining, deviation);
+			boolean doomed = !undecided.contains(e.getID()) && maxCorrect < bestCorrect && 
+					(maxCorrect / length < pruningMinE || redundant.contains(e.getID()));
+			if(doomed && !e.isDoomed())
+				e.doom(exact && mutePruned);
+			else if(!doomed && e.isDoomed())
+				e.resume();
+		}
+	}
+	
+	/**
+	 * @param count events so far (correct classifications or same actions)
+	 * @param seen instances so far
+	 * @param remaining instances left in the period
+	 * @param deviation of the rate so far (see hoeffding)
+	 * @return upper bound of the count at the end of the period */
+	protected double upperBound(int count, int seen, int remaining, double deviation) {
+		if(pruningConfidence <= 0.0 || seen == 0)
+			return count + remaining;
+		return count + remaining * Math.min(1.0, count / (double) seen + deviation);
+	}
+	
+	/** @see #upperBound(int, int, int, double) */
+	protected double lowerBound(int count, int seen, int remaining, double deviation) {
+		if(pruningConfidence <= 0.0 || seen == 0)
+			return count;
+		return count + remaining * Math.max(0.0, count / (double) seen - deviation);
+	}
+	
+	/**
+	 * Every bound of every check of the period shares pruningConfidence (union bound). 
+	 * @param seen instances so far
+	 * @param tests bounds computed by the current check
+	 * @return deviation of a Hoeffding bound */
+	private double hoeffding(int seen, int tests) {
+		double checks = Math.max(1, pruningPeriodLength / pruningInterval());
+		return Math.sqrt(Math.log(checks * Math.max(1, tests) / pruningConfidence) / (2.0 * seen));
+	}
+	
+	/**
+	 * Add an instance that was just tested (see test(...)) to the current micro-batch. 
+	 * Every expert prediction is recorded, so the accuracy and connection counters are 
+	 * updated later, in bulk, by trainOnBlock(...). The experts cannot change until then. 
+	 * @param instance */
+	public void addToBlock(Instance instance) {
+		if(block.isEmpty()) {
+			blockExperts = experts.values().toArray(new Expert[experts.size()]);
+			if(blockPredictions == null || blockPredictions.length != blockExperts.length)
+				blockPredictions = new int[blockExperts.length][64];
+		}
+		int i = block.size();
+		if(i == blockPredictions[0].length) {
+			for(int e = 0 ; e < blockPredictions.length ; ++e) {
+				int[] predictions = new int[i * 2];
+				System.arraycopy(blockPredictions[e], 0, predictions, 0, i);
+				blockPredictions[e] = predictions;
+			}
+		}
+		for(int e = 0 ; e < blockExperts.length ; ++e)
+			blockPredictions[e][i] = blockExperts[e].getLastPredictedClass();
+		/* Copied, since callers may reuse instance objects (see PrequentialRunner) */
+		block.add(instance.copy());
+	}
+	
+	/**
+	 * Micro-batch version of checkExpertsAccuracy, updateConnections and train. 
+	 * Accuracy and connections counters are updated in bulk. Online bagging weights are 
+	 * drawn in the same order as train(...) would (instance by instance), then each expert 
+	 * is trained on the whole block at once (expert-major). Experts are trained in parallel 
+	 * using the shared worker pool (see Workers). 
+	 * @param random */
+	public void trainOnBlock(Random random) {
+		final int n = block.size();
+		if(n == 0)
+			return;
+		final Expert[] trainees = blockExperts;
+		
+		/* Accuracy */
+		HashMap<Integer, Integer> position = new HashMap<Integer, Integer>(trainees.length * 2);
+		for(int e = 0 ; e < trainees.length ; ++e) {
+			position.put(trainees[e].getID(), e);
+			int correct = 0;
+			for(int i = 0 ; i < n ; ++i)
+				if(blockPredictions[e][i] == block.get(i).classValue())
+					++correct;
+			trainees[e].addCorrectlyClassified(correct);
+		}
+		/* Similarities */
+		for(Connection c : connections.getConnections().values()) {
+			int[] first = blockPredictions[position.get(c.getFirst().getID())];
+			int[] second = blockPredictions[position.get(c.getSecond().getID())];
+			int same = 0;
+			for(int i = 0 ; i < n ; ++i)
+				if(first[i] == second[i] && first[i] != Expert.NO_PREDICTION)
+					++same;
+			c.addSameActions(same);
+		}
+		
+		/* Online bagging weights (1 expert network: no random sampling) */
+		final int[][] k = new int[trainees.length][n];
+		for(int i = 0 ; i < n ; ++i)
+			for(int e = 0 ; e < trainees.length ; ++e)
+				k[e][i] = trainees.length == 1 ? 1 : MiscUtils.poisson(1.0, random);
+		
+		final ArrayList<Instance> instances = new ArrayList<Instance>(block);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(trainees.length);
+		for(int e = 0 ; e < trainees.length ; ++e) {
+			final Expert expert = trainees[e];
+			final int[] weights = k[e];
+			if(!isTrainable(expert, numberOfInstancesSeen + n))
+				continue;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for(int i = 0 ; i < n ; ++i) {
+						Instance instance = instances.get(i);
+						if(trainees.length == 1)
+							expert.train(instance);
+						else if(weights[i] > 0) {
+							Instance weightedInst = instance.copy();
+							weightedInst.setWeight(instance.weight() * weights[i]);
+							expert.train(weightedInst);
+						}
+					}
+					return null;
+				}
+			});
+		}
+		/* Training is always finished, even if this thread is interrupted meanwhile (the 
+		 * interruption is restored afterwards), since counters already include the block */
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+		for(Callable<Void> task : tasks)
+			futures.add(Workers.pool().submit(task));
+		boolean interrupted = false;
+		try {
+			for(Future<Void> f : futures) {
+				while(true) {
+					try {
+						f.get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Not possible to train experts on micro-batch", e.getCause());
+		} finally {
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+		
+		numberOfInstancesSeen += n;
+		for(int i = 0 ; i < n ; ++i)
+			subnetworks.instanceSeen();
+		block.clear();
+		/* Checked at most once per micro-batch */
+		if(earlyPruning && numberOfInstancesSeen % pruningInterval() < n)
+			checkDoomed();
+	}
+	
+	/**
+	 * Single pass version of test, checkExpertsAccuracy, updateConnections and train. 
+	 * Experts are visited once, in a contiguous array: each one predicts the instance, draws 
+	 * its online bagging weight and trains right away. Afterwards subnetworks vote using 
+	 * the predictions just made (see Subnetworks.combineCachedVotes), accuracy counters are 
+	 * updated and predictions are binned by class, so that only connections between experts 
+	 * that agreed are visited. The result is the same as the four separate passes, except 
+	 * that random numbers are drawn in another order (bagging weights before tie breaks). 
+	 * @param instance
+	 * @param periodLength
+	 * @param ticks
+	 * @param random
+	 * @return array with votes, where position with max value is the predicted */
+	public double[] tick(Instance instance, int periodLength, long ticks, Random random) {
+		if(remote != null)
+			remote.predict(instance);
+		if(tickExperts == null)
+			buildTickIndex();
+		final Expert[] index = tickExperts;
+		final int[] predictions = tickPredictions;
+		final int n = index.length;
+		
+		for(int e = 0 ; e < n ; ++e) {
+			Expert expert = index[e];
+			predictions[e] = expert.test(instance);
+			/* 1 expert network: use all instances for training (no random sampling) */
+			if(n == 1)
+				expert.train(instance);
+			else {
+				int k = MiscUtils.poisson(1.0, random);
+				if (k > 0 && isTrainable(expert, numberOfInstancesSeen)) {
+					Instance weightedInst = instance.copy();
+					weightedInst.setWeight(instance.weight() * k);
+					expert.train(weightedInst);
+				}
+			}
+		}
+		double[] votes = subnetworks.combineCachedVotes(instance, periodLength, ticks);
+		
+		/* Accuracy (after voting, since votes may be weighted by it) and bins of experts 
+		 * by predicted class (counting sort) */
+		int numClasses = instance.numClasses();
+		if(tickClassStart == null || tickClassStart.length != numClasses + 1)
+			tickClassStart = new int[numClasses + 1];
+		final int[] start = tickClassStart, order = tickOrder;
+		Arrays.fill(start, 0);
+		int classValue = (int) instance.classValue();
+		for(int e = 0 ; e < n ; ++e) {
+			if(predictions[e] == classValue)
+				index[e].addCorrectlyClassified(1);
+			/* Muted experts (see Expert.doom) are not binned */
+			if(predictions[e] != Expert.NO_PREDICTION)
+				++start[predictions[e] + 1];
+		}
+		for(int c = 0 ; c < numClasses ; ++c)
+			start[c + 1] += start[c];
+		for(int e = 0 ; e < n ; ++e)
+			if(predictions[e] != Expert.NO_PREDICTION)
+				order[start[predictions[e]]++] = e;
+		/* Similarities: every pair of experts within the same bin predicted the same class */
+		int from = 0;
+		for(int c = 0 ; c < numClasses ; ++c) {
+			int to = start[c];
+			for(int i = from ; i < to ; ++i) {
+				Connection[] row = tickConnections[order[i]];
+				for(int j = i + 1 ; j < to ; ++j) {
+					Connection connection = row[order[j]];
+					if(connection != null)
+						connection.addSameActions(1);
+				}
+			}
+			from = to;
+		}
+		
+		++numberOfInstancesSeen;
+		subnetworks.instanceSeen();
+		if(earlyPruning && numberOfInstancesSeen % pruningInterval() == 0)
+			checkDoomed();
+		return votes;
+	}
+	
+	/**
+	 * Build the contiguous index used by tick(...). Experts are kept in the same order 
+	 * as in the experts HashMap. */
+	protected void buildTickIndex() {
+		int n = experts.size();
+		tickExperts = experts.values().toArray(new Expert[n]);
+		HashMap<Integer, Integer> position = new HashMap<Integer, Integer>(n * 2);
+		for(int e = 0 ; e < n ; ++e)
+			position.put(tickExperts[e].getID(), e);
+		tickConnections = new Connection[n][n];
+		for(Connection c : connections.getConnections().values()) {
+			int first = position.get(c.getFirst().getID()), second = position.get(c.getSecond().getID());
+			tickConnections[first][second] = c;
+			tickConnections[second][first] = c;
+		}
+		tickPredictions = new int[n];
+		tickOrder = new int[n];
+	}
+	
+	/**
+	 * Experts or connections changed, the index used by tick(...) must be rebuilt. */
+	protected void invalidateTickIndex() {
+		tickExperts = null;
 	}
 	
 	/**
@@ -256,23 +872,177 @@ public class Network {
 	 * @param instance
 	 * @return array with votes, where position with max value is the predicted */
 	public double[] test(Instance instance, int periodLength, long ticks)	{
-		candidate.test(instance);
+		/* Every remote expert predicts the instance at once (one round trip per worker) */
+		if(remote != null)
+			remote.predict(instance);
+		if(candidate != null)
+			candidate.test(instance);
+		/* Experts that do not vote until the pending subnetworks are published (see 
+		 * Subnetworks.scheduleUpdate), their predictions are still needed for accuracy and Sc */
+		for(Integer id : subnetworks.getUncoveredVertices())
+			experts.get(id).test(instance);
 		return subnetworks.combineVotes(instance, periodLength, ticks);
 	}
 	
+	/**
+	 * Predict class using the last published ScoringView. Unlike test(...), it does not 
+	 * change the network, thus it may be called from any number of threads while 
+	 * another thread trains the network. 
+	 * @param instance
+	 * @return array with votes, where position with max value is the predicted */
+	public double[] score(Instance instance) {
+		ScoringView view = scoringView;
+		if(view == null)
+			throw new IllegalStateException("Scoring view is disabled (see setScoringViewRefresh)");
+		return view.score(instance);
+	}
+	
+	/**
+	 * Publish a new ScoringView with the current subnetworks and experts. 
+	 * @param periodLength
+	 * @param ticks */
+	public void publishScoringView(int periodLength, long ticks) {
+		scoringView = subnetworks.buildScoringView(periodLength, ticks);
+		instancesSinceScoringView = 0;
+	}
+	
+	/**
+	 * Publish a new ScoringView if scoringViewRefresh instances were seen since the last one. 
+	 * @param periodLength
+	 * @param ticks */
+	public void refreshScoringView(int periodLength, long ticks) {
+		if(scoringViewRefresh > 0 && ++instancesSinceScoringView >= scoringViewRefresh)
+			publishScoringView(periodLength, ticks);
+	}
+	
 	/* Mutators */
 	public void addCorrectlyClassified() {
 		++correctlyClassified;
 	}
+	public void setTopologyLag(int topologyLag) {
+		this.topologyLag = topologyLag;
+	}
+	public void setEarlyExitVoting(boolean earlyExit) {
+		subnetworks.setEarlyExitVoting(earlyExit);
+	}
+	/**
+	 * Replace the random generator used to break ties (e.g. by one restored from a checkpoint). 
+	 * @param random */
+	public void setRandom(Random random) {
+		subnetworks.setRandom(random);
+	}
+	/**
+	 * Stop training experts whose accuracy was stable for stablePeriods periods, until 
+	 * their accuracy drops (see Expert.updateFreezing and Expert.checkFrozen). 
+	 * @param stablePeriods 0 = never freeze experts
+	 * @param tolerance */
+	public void setFreezing(int stablePeriods, double tolerance) {
+		this.freezeStablePeriods = stablePeriods;
+		this.freezeTolerance = tolerance;
+		if(stablePeriods <= 0)
+			for(Expert e : experts.values())
+				e.frozen = false;
+	}
+	/**
+	 * Stop training (and optionally predicting with) experts that will certainly be removed 
+	 * at the end of the period (see checkDoomed). Thresholds must be the same ones used by 
+	 * update(...). 
+	 * @param enabled
+	 * @param periodLength
+	 * @param minE
+	 * @param scMax
+	 * @param confidence probability of a wrong Hoeffding bound (0 = worst case bounds, removals 
+	 * are exactly the same as without early pruning)
+	 * @param mute whether doomed experts stop predicting (and voting) too */
+	public void setEarlyPruning(boolean enabled, int periodLength, double minE, double scMax, 
+			double confidence, boolean mute) {
+		this.earlyPruning = enabled;
+		this.pruningPeriodLength = periodLength;
+		this.pruningMinE = minE;
+		this.pruningScMax = scMax;
+		this.pruningConfidence = confidence;
+		this.mutePruned = mute;
+	}
+	/**
+	 * Spawn a candidate at the start of a period only if the network needs it (see needsCandidate). 
+	 * @param enabled false = spawn a candidate every period
+	 * @param spawnAccuracy
+	 * @param spawnAccuracyDrop */
+	public void setDemandDrivenCandidates(boolean enabled, double spawnAccuracy, double spawnAccuracyDrop) {
+		this.demandDrivenCandidates = enabled;
+		this.spawnAccuracy = spawnAccuracy;
+		this.spawnAccuracyDrop = spawnAccuracyDrop;
+	}
+	/** @see Subnetworks#setCombinationLimits(long, int) */
+	public void setCombinationLimits(long timeBudget, int maxSubnetworks) {
+		subnetworks.setCombinationLimits(timeBudget, maxSubnetworks);
+	}
+	/** @param scoringViewRefresh instances between ScoringViews (0 = no views, score(...) is disabled) */
+	public void setScoringViewRefresh(int scoringViewRefresh) {
+		this.scoringViewRefresh = scoringViewRefresh;
+		if(scoringViewRefresh <= 0)
+			scoringView = null;
+	}
 	
 	/* Accessors */
 	public int getCorrectlyClassified() {
 		return correctlyClassified;
 	}
+	public int getBlockSize() {
+		return block.size();
+	}
 	public double getCorrectlyClassifiedRatio() {
 		return correctlyClassified / (double) numberOfInstancesSeen;
 	}
+	/** @return candidate accuracy during the period (NaN if there is no candidate) */
+	public double getCandidateAccuracy(int periodLength) {
+		return candidate == null ? Double.NaN : candidate.getCorrectlyClassifiedRatio(periodLength);
+	}
 
+	/**
+	 * Describe the structure of the network: experts (and which one is the candidate), 
+	 * active connections and subnetworks (including pending ones). Counters and learners 
+	 * are not included, thus equal fingerprints only mean equal networks when both networks 
+	 * come from the same state, e.g. copies of a network that were updated with different 
+	 * thresholds (see SAE2Sweep). 
+	 * @return fingerprint */
+	public String getStructureFingerprint() {
+		StringBuilder str = new StringBuilder(200);
+		List<Integer> ids = new ArrayList<Integer>(experts.keySet());
+		Collections.sort(ids);
+		str.append(ids).append(candidate == null ? -1 : candidate.getID());
+		/* Freezing state, it decides which experts train during the next period */
+		for(Integer id : ids) {
+			Expert e = experts.get(id);
+			str.append(e.getStablePeriods()).append(e.isFrozen() ? 'f' : 't');
+		}
+		List<Long> active = new ArrayList<Long>();
+		for(Connection c : connections.getConnections().values())
+			if(c.isActive())
+				active.add(c.getID());
+		Collections.sort(active);
+		str.append(active);
+		str.append(describe(subnetworks.getSubnetworks()));
+		Collection<Set<Integer>> pending = subnetworks.getPendingSubnetworks();
+		if(pending != null)
+			str.append(subnetworks.getPendingLag()).append(describe(pending));
+		/* The expert limit changes which experts are removed at the next update */
+		if(latencyController != null)
+			str.append(latencyController.getLimit());
+		return str.toString();
+	}
+	
+	private static String describe(Collection<Set<Integer>> subnetworks) {
+		List<String> sorted = new ArrayList<String>(subnetworks.size());
+		for(Set<Integer> subnetwork : subnetworks) {
+			List<Integer> vertices = new ArrayList<Integer>(subnetwork);
+			Collections.sort(vertices);
+			sorted.add(vertices.toString());
+		}
+		Collections.sort(sorted);
+		return sorted.toString();
+	}
+	
 	/**
 	 * Extract prominence measurements from the network */
 	public void extractMeasurements() {
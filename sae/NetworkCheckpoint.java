@@ -0,0 +1,557 @@
+package moa.classifiers.sae;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.Classifier;
+import moa.classifiers.sae.remote.RemoteExpert;
+
+/**
+ * Snapshot of the whole state of a Network (experts and their learners, period counters,
+ * connections similarities, active edges and subnetworks) along with the state of
+ * the SAE2 instance that owns it (time, period counters, Ier and random generator).
+ *
+ * A snapshot is captured on the training thread and never changes afterwards. Learners,
+ * Ier and the random generator are serialized at capture time, so the snapshot can be
+ * written by another thread while training continues (see writeInBackground).
+ *
+ * Binary format (big endian, version 4):
+ *   magic, version, owner state, network counters,
+ *   experts (id, counters, candidate flag, stable periods, frozen flag, serialized learner),
+ *   connections (first id, second id, same actions, active flag),
+ *   current subnetworks, pending subnetworks and lag,
+ *   pending micro-batch (serialized instances, then the id and predictions of each expert),
+ *   latency controller (see LatencyController): expert limit (int, -1 if not decided yet
+ *   or without a controller), number of latencies (int) and latencies in nanoseconds
+ *   (longs, oldest first, none without a controller).
+ * Graph edges are not stored: they are the active connections. Capturing a snapshot
+ * does not change the network, the pending micro-batch is stored as it is (see MicroBatchSize). */
+public class NetworkCheckpoint {
+	/* "SAE2" */
+	public static final int MAGIC = 0x53414532;
+	public static final int VERSION = 4;
+
+	/* Owner (SAE2) state */
+	protected long ticks;
+	protected int periodLength;
+	protected int periodIdentifier;
+	protected long periodCounter;
+	protected long periodLengthMeasurement;
+	protected byte[] ier = new byte[0];
+	protected byte[] random = new byte[0];
+
+	/* Network counters */
+	protected int nextExpertID;
+	protected int correctlyClassified;
+	protected int numberOfInstancesSeen;
+	protected long removedByPerformanceCounter;
+	protected long removedByRedundancyCounter;
+	protected int candidateID;
+
+	/* Experts */
+	protected int[] expertID;
+	protected int[] expertCorrectlyClassified;
+	protected double[] expertRatioLastPeriod;
+	protected int[] expertLastPredictedClass;
+	protected long[] expertCreatedOn;
+	protected boolean[] expertCandidate;
+	protected int[] expertStablePeriods;
+	protected boolean[] expertFrozen;
+	protected byte[][] expertLearner;
+
+	/* Connections */
+	protected int[] connectionFirst;
+	protected int[] connectionSecond;
+	protected int[] connectionSameActions;
+	protected boolean[] connectionActive;
+
+	/* Subnetworks */
+	protected int[][] subnetworks;
+	protected int[][] pendingSubnetworks;
+	protected int pendingLag;
+
+	/* Micro-batch (see Network.addToBlock): instances, experts and their predictions ([expert][instance]) */
+	protected byte[] blockInstances = new byte[0];
+	protected int[] blockExpertID = new int[0];
+	protected int[][] blockPredictions = new int[0][];
+
+	/* Latency controller (see LatencyController): expert limit and latencies, oldest first */
+	protected int latencyLimit = -1;
+	protected long[] latencies = new long[0];
+
+	protected NetworkCheckpoint() {
+	}
+
+	/**
+	 * Capture the current state of a network. The owner state must be set
+	 * through setOwnerState(...) before writing the snapshot.
+	 * @param network
+	 * @return snapshot independent from the network */
+	public static NetworkCheckpoint capture(Network network) throws IOException {
+		NetworkCheckpoint cp = new NetworkCheckpoint();
+		cp.nextExpertID = network.nextExpertID;
+		cp.correctlyClassified = network.correctlyClassified;
+		cp.numberOfInstancesSeen = network.numberOfInstancesSeen;
+		cp.removedByPerformanceCounter = network.removedByPerformanceCounter;
+		cp.removedByRedundancyCounter = network.removedByRedundancyCounter;
+		cp.candidateID = network.candidate == null ? -1 : network.candidate.getID();
+
+		int n = network.experts.size(), i = 0;
+		cp.expertID = new int[n];
+		cp.expertCorrectlyClassified = new int[n];
+		cp.expertRatioLastPeriod = new double[n];
+		cp.expertLastPredictedClass = new int[n];
+		cp.expertCreatedOn = new long[n];
+		cp.expertCandidate = new boolean[n];
+		cp.expertStablePeriods = new int[n];
+		cp.expertFrozen = new boolean[n];
+		cp.expertLearner = new byte[n][];
+		for(Expert e : network.experts.values()) {
+			cp.expertID[i] = e.ID;
+			cp.expertCorrectlyClassified[i] = e.correctlyClassified;
+			cp.expertRatioLastPeriod[i] = e.correctlyClassifiedRatioLastPeriod;
+			cp.expertLastPredictedClass[i] = e.getLastPredictedClass();
+			cp.expertCreatedOn[i] = e.createdOn;
+			cp.expertCandidate[i] = e.candidate;
+			cp.expertStablePeriods[i] = e.stablePeriods;
+			cp.expertFrozen[i] = e.frozen;
+			cp.expertLearner[i] = serialize(e.getLearner());
+			++i;
+		}
+
+		int m = network.connections.getConnections().size(), j = 0;
+		cp.connectionFirst = new int[m];
+		cp.connectionSecond = new int[m];
+		cp.connectionSameActions = new int[m];
+		cp.connectionActive = new boolean[m];
+		for(Connection c : network.connections.getConnections().values()) {
+			cp.connectionFirst[j] = c.getFirst().getID();
+			cp.connectionSecond[j] = c.getSecond().getID();
+			cp.connectionSameActions[j] = c.sameActions;
+			cp.connectionActive[j] = c.isActive();
+			++j;
+		}
+
+		cp.subnetworks = toArrays(network.subnetworks.getSubnetworks());
+		Collection<Set<Integer>> pending = network.subnetworks.getPendingSubnetworks();
+		cp.pendingSubnetworks = pending == null ? null : toArrays(pending);
+		cp.pendingLag = network.subnetworks.getPendingLag();
+
+		int b = network.block.size();
+		if(b > 0) {
+			cp.blockInstances = serialize(network.block);
+			cp.blockExpertID = new int[network.blockExperts.length];
+			cp.blockPredictions = new int[network.blockExperts.length][];
+			for(int e = 0 ; e < network.blockExperts.length ; ++e) {
+				cp.blockExpertID[e] = network.blockExperts[e].getID();
+				cp.blockPredictions[e] = Arrays.copyOf(network.blockPredictions[e], b);
+			}
+		}
+		if(network.latencyController != null) {
+			cp.latencyLimit = network.latencyController.getLimit();
+			cp.latencies = network.latencyController.getLatencies();
+		}
+		return cp;
+	}
+
+	/**
+	 * Set the state of the classifier that owns the network.
+	 * @param ticks
+	 * @param periodLength
+	 * @param periodIdentifier
+	 * @param periodCounter
+	 * @param periodLengthMeasurement
+	 * @param Ier incorrectly classified instances of the current period
+	 * @param random random number generator shared by the network */
+	public void setOwnerState(long ticks, int periodLength, int periodIdentifier, long periodCounter,
+			long periodLengthMeasurement, ArrayList<Instance> Ier, Random random) throws IOException {
+		this.ticks = ticks;
+		this.periodLength = periodLength;
+		this.periodIdentifier = periodIdentifier;
+		this.periodCounter = periodCounter;
+		this.periodLengthMeasurement = periodLengthMeasurement;
+		this.ier = serialize(Ier);
+		this.random = serialize(random);
+	}
+
+	/**
+	 * Replace the whole state of a network by the state in this snapshot. The network must
+	 * have been created with the same combination and voting methods.
+	 * @param network */
+	public void restore(Network network) throws IOException {
+		for(Integer id : network.network.getNodesIDs())
+			network.network.removeNode(id);
+		network.connections.getConnections().clear();
+		if(network.remote != null)
+			for(Integer id : network.experts.keySet())
+				network.remote.release(id);
+		network.experts.clear();
+
+		for(int i = 0 ; i < expertID.length ; ++i) {
+			Expert e = new Expert(expertID[i], (Classifier) deserialize(expertLearner[i]), expertCreatedOn[i],
+					expertCandidate[i], expertCorrectlyClassified[i], expertRatioLastPeriod[i],
+					expertLastPredictedClass[i]);
+			/* Learners of remote experts are sent back to the worker processes */
+			if(network.remote != null)
+				e = new RemoteExpert(network.remote, e);
+			e.stablePeriods = expertStablePeriods[i];
+			e.frozen = expertFrozen[i];
+			network.experts.put(e.getID(), e);
+			/* Only experts that are not candidates are in the graph */
+			if(!e.isCandidate())
+				network.network.addNode(e.getID(), e.getID());
+		}
+		for(int j = 0 ; j < connectionFirst.length ; ++j) {
+			Connection c = new Connection(network.experts.get(connectionFirst[j]),
+					network.experts.get(connectionSecond[j]));
+			c.sameActions = connectionSameActions[j];
+			c.setActive(connectionActive[j]);
+			network.connections.getConnections().put(c.getID(), c);
+			if(c.isActive())
+				network.network.setEdge(connectionFirst[j], connectionSecond[j], c.getID());
+		}
+
+		network.nextExpertID = nextExpertID;
+		network.correctlyClassified = correctlyClassified;
+		network.numberOfInstancesSeen = numberOfInstancesSeen;
+		network.removedByPerformanceCounter = removedByPerformanceCounter;
+		network.removedByRedundancyCounter = removedByRedundancyCounter;
+		network.candidate = network.experts.get(candidateID);
+		network.subnetworks.restore(toSets(subnetworks),
+				pendingSubnetworks == null ? null : toSets(pendingSubnetworks), pendingLag);
+		network.block.clear();
+		network.blockExperts = null;
+		network.blockPredictions = null;
+		if(blockExpertID.length > 0) {
+			network.block.addAll(getBlockInstances());
+			network.blockExperts = new Expert[blockExpertID.length];
+			network.blockPredictions = new int[blockExpertID.length][];
+			for(int e = 0 ; e < blockExpertID.length ; ++e) {
+				network.blockExperts[e] = network.experts.get(blockExpertID[e]);
+				if(network.blockExperts[e] == null)
+					throw new IOException("Micro-batch expert " + blockExpertID[e] + " not in network checkpoint");
+				network.blockPredictions[e] = blockPredictions[e].clone();
+			}
+		}
+		if(network.latencyController != null)
+			network.latencyController.restore(latencyLimit, latencies);
+		/* State of the period that is not part of the snapshot starts over, as in a new network */
+		network.lastPeriodAccuracy = Double.NaN;
+		network.traceEpochPending = true;
+		network.invalidateTickIndex();
+	}
+
+	/**
+	 * Write the snapshot to a channel. The channel is not closed. */
+	public void write(WritableByteChannel channel) throws IOException {
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		out.writeLong(ticks);
+		out.writeInt(periodLength);
+		out.writeInt(periodIdentifier);
+		out.writeLong(periodCounter);
+		out.writeLong(periodLengthMeasurement);
+		writeBytes(out, ier);
+		writeBytes(out, random);
+
+		out.writeInt(nextExpertID);
+		out.writeInt(correctlyClassified);
+		out.writeInt(numberOfInstancesSeen);
+		out.writeLong(removedByPerformanceCounter);
+		out.writeLong(removedByRedundancyCounter);
+		out.writeInt(candidateID);
+
+		out.writeInt(expertID.length);
+		for(int i = 0 ; i < expertID.length ; ++i) {
+			out.writeInt(expertID[i]);
+			out.writeInt(expertCorrectlyClassified[i]);
+			out.writeDouble(expertRatioLastPeriod[i]);
+			out.writeInt(expertLastPredictedClass[i]);
+			out.writeLong(expertCreatedOn[i]);
+			out.writeBoolean(expertCandidate[i]);
+			out.writeInt(expertStablePeriods[i]);
+			out.writeBoolean(expertFrozen[i]);
+			writeBytes(out, expertLearner[i]);
+		}
+
+		out.writeInt(connectionFirst.length);
+		for(int j = 0 ; j < connectionFirst.length ; ++j) {
+			out.writeInt(connectionFirst[j]);
+			out.writeInt(connectionSecond[j]);
+			out.writeInt(connectionSameActions[j]);
+			out.writeBoolean(connectionActive[j]);
+		}
+
+		writeSubnetworks(out, subnetworks);
+		out.writeBoolean(pendingSubnetworks != null);
+		if(pendingSubnetworks != null)
+			writeSubnetworks(out, pendingSubnetworks);
+		out.writeInt(pendingLag);
+
+		writeBytes(out, blockInstances);
+		out.writeInt(blockExpertID.length);
+		for(int e = 0 ; e < blockExpertID.length ; ++e) {
+			out.writeInt(blockExpertID[e]);
+			out.writeInt(blockPredictions[e].length);
+			for(int prediction : blockPredictions[e])
+				out.writeInt(prediction);
+		}
+
+		out.writeInt(latencyLimit);
+		out.writeInt(latencies.length);
+		for(long latency : latencies)
+			out.writeLong(latency);
+		out.flush();
+	}
+
+	/**
+	 * Read a snapshot from a channel. The channel is not closed. */
+	public static NetworkCheckpoint read(ReadableByteChannel channel) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+		if(in.readInt() != MAGIC)
+			throw new IOException("Not a network checkpoint");
+		int version = in.readInt();
+		if(version != VERSION)
+			throw new IOException("Unsupported network checkpoint version " + version);
+
+		NetworkCheckpoint cp = new NetworkCheckpoint();
+		cp.ticks = in.readLong();
+		cp.periodLength = in.readInt();
+		cp.periodIdentifier = in.readInt();
+		cp.periodCounter = in.readLong();
+		cp.periodLengthMeasurement = in.readLong();
+		cp.ier = readBytes(in);
+		cp.random = readBytes(in);
+
+		cp.nextExpertID = in.readInt();
+		cp.correctlyClassified = in.readInt();
+		cp.numberOfInstancesSeen = in.readInt();
+		cp.removedByPerformanceCounter = in.readLong();
+		cp.removedByRedundancyCounter = in.readLong();
+		cp.candidateID = in.readInt();
+
+		int n = in.readInt();
+		cp.expertID = new int[n];
+		cp.expertCorrectlyClassified = new int[n];
+		cp.expertRatioLastPeriod = new double[n];
+		cp.expertLastPredictedClass = new int[n];
+		cp.expertCreatedOn = new long[n];
+		cp.expertCandidate = new boolean[n];
+		cp.expertStablePeriods = new int[n];
+		cp.expertFrozen = new boolean[n];
+		cp.expertLearner = new byte[n][];
+		for(int i = 0 ; i < n ; ++i) {
+			cp.expertID[i] = in.readInt();
+			cp.expertCorrectlyClassified[i] = in.readInt();
+			cp.expertRatioLastPeriod[i] = in.readDouble();
+			cp.expertLastPredictedClass[i] = in.readInt();
+			cp.expertCreatedOn[i] = in.readLong();
+			cp.expertCandidate[i] = in.readBoolean();
+			cp.expertStablePeriods[i] = in.readInt();
+			cp.expertFrozen[i] = in.readBoolean();
+			cp.expertLearner[i] = readBytes(in);
+		}
+
+		int m = in.readInt();
+		cp.connectionFirst = new int[m];
+		cp.connectionSecond = new int[m];
+		cp.connectionSameActions = new int[m];
+		cp.connectionActive = new boolean[m];
+		for(int j = 0 ; j < m ; ++j) {
+			cp.connectionFirst[j] = in.readInt();
+			cp.connectionSecond[j] = in.readInt();
+			cp.connectionSameActions[j] = in.readInt();
+			cp.connectionActive[j] = in.readBoolean();
+		}
+
+		cp.subnetworks = readSubnetworks(in);
+		cp.pendingSubnetworks = in.readBoolean() ? readSubnetworks(in) : null;
+		cp.pendingLag = in.readInt();
+
+		cp.blockInstances = readBytes(in);
+		int b = in.readInt();
+		cp.blockExpertID = new int[b];
+		cp.blockPredictions = new int[b][];
+		for(int e = 0 ; e < b ; ++e) {
+			cp.blockExpertID[e] = in.readInt();
+			cp.blockPredictions[e] = new int[in.readInt()];
+			for(int i = 0 ; i < cp.blockPredictions[e].length ; ++i)
+				cp.blockPredictions[e][i] = in.readInt();
+		}
+
+		cp.latencyLimit = in.readInt();
+		cp.latencies = new long[in.readInt()];
+		for(int i = 0 ; i < cp.latencies.length ; ++i)
+			cp.latencies[i] = in.readLong();
+		return cp;
+	}
+
+	/**
+	 * Write the snapshot to a file. It is written to a temporary file first and then
+	 * moved over the destination, so an existing checkpoint is never left half written. */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			write(channel);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Write the snapshot to a file using a worker thread (see Workers).
+	 * @return future that completes once the file is written */
+	public Future<Void> writeInBackground(final File file) {
+		return Workers.pool().submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				write(file);
+				return null;
+			}
+		});
+	}
+
+	public static NetworkCheckpoint read(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			return read(channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* Accessors (owner state) */
+	public long getTicks() {
+		return ticks;
+	}
+	public int getPeriodLength() {
+		return periodLength;
+	}
+	public int getPeriodIdentifier() {
+		return periodIdentifier;
+	}
+	public long getPeriodCounter() {
+		return periodCounter;
+	}
+	public long getPeriodLengthMeasurement() {
+		return periodLengthMeasurement;
+	}
+	@SuppressWarnings("unchecked")
+	public ArrayList<Instance> getIer() throws IOException {
+		return (ArrayList<Instance>) deserialize(ier);
+	}
+	public Random getRandom() throws IOException {
+		return (Random) deserialize(random);
+	}
+	@SuppressWarnings("unchecked")
+	public ArrayList<Instance> getBlockInstances() throws IOException {
+		return (ArrayList<Instance>) deserialize(blockInstances);
+	}
+
+	private static byte[] serialize(Object o) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(o);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Not possible to restore checkpoint object", e);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static void writeSubnetworks(DataOutputStream out, int[][] subnetworks) throws IOException {
+		out.writeInt(subnetworks.length);
+		for(int[] subnetwork : subnetworks) {
+			out.writeInt(subnetwork.length);
+			for(int vertex : subnetwork)
+				out.writeInt(vertex);
+		}
+	}
+
+	private static int[][] readSubnetworks(DataInputStream in) throws IOException {
+		int[][] subnetworks = new int[in.readInt()][];
+		for(int s = 0 ; s < subnetworks.length ; ++s) {
+			subnetworks[s] = new int[in.readInt()];
+			for(int v = 0 ; v < subnetworks[s].length ; ++v)
+				subnetworks[s][v] = in.readInt();
+		}
+		return subnetworks;
+	}
+
+	private static int[][] toArrays(Collection<Set<Integer>> subnetworks) {
+		int[][] arrays = new int[subnetworks.size()][];
+		int s = 0;
+		for(Set<Integer> subnetwork : subnetworks) {
+			arrays[s] = new int[subnetwork.size()];
+			int v = 0;
+			for(Integer vertex : subnetwork)
+				arrays[s][v++] = vertex;
+			++s;
+		}
+		return arrays;
+	}
+
+	private static Collection<Set<Integer>> toSets(int[][] arrays) {
+		Collection<Set<Integer>> subnetworks = new ArrayList<Set<Integer>>(arrays.length);
+		for(int[] array : arrays) {
+			Set<Integer> subnetwork = new HashSet<Integer>(array.length * 2);
+			for(int vertex : array)
+				subnetwork.add(vertex);
+			subnetworks.add(subnetwork);
+		}
+		return subnetworks;
+	}
+}
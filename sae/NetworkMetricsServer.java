@@ -0,0 +1,198 @@
+package moa.classifiers.sae;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the measurements of the last period (the same OutputNetworkMeasurements writes)
+ * and the time spent on each phase of the period over HTTP, in the Prometheus text format:
+ *
+ *   curl http://localhost:port/metrics
+ *
+ * The network publishes an immutable snapshot at the end of every update (see publish),
+ * requests only read the latest one, thus scraping never blocks (nor slows down) training.
+ * Requests are answered by a single daemon thread.
+ */
+public class NetworkMetricsServer {
+	/* Prefix of every metric name */
+	private static final String PREFIX = "sae_";
+	/* Phases of a network update, in the order Network.update runs them */
+	public static final String[] PHASES = {"measurements", "removal", "addition", "connections", "subnetworks"};
+
+	protected final HttpServer server;
+	protected final ExecutorService executor;
+	/* Latest snapshot, null before the first update */
+	protected final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>();
+
+	/**
+	 * Measurements of one period. Immutable, thus it can be read by any thread once published. */
+	public static final class Snapshot {
+		final int period;
+		final long instancesSeen;
+		final double density, avgDegree;
+		final long numVertex, numEdges;
+		final int numSubnetworks;
+		final long ties;
+		final double accuracy;
+		final long rmByPerformance, rmByRedundancy;
+		final double candidateAccuracy;
+		/* Time spent testing/training on the instances of the period and on each phase 
+		 * of the update (see PHASES) */
+		final long instancesNanos;
+		final long[] phaseNanos;
+
+		public Snapshot(int period, long instancesSeen, double density, double avgDegree, long numVertex,
+				long numEdges, int numSubnetworks, long ties, double accuracy, long rmByPerformance,
+				long rmByRedundancy, double candidateAccuracy) {
+			this(period, instancesSeen, density, avgDegree, numVertex, numEdges, numSubnetworks, ties,
+					accuracy, rmByPerformance, rmByRedundancy, candidateAccuracy, 0, new long[PHASES.length]);
+		}
+
+		private Snapshot(int period, long instancesSeen, double density, double avgDegree, long numVertex,
+				long numEdges, int numSubnetworks, long ties, double accuracy, long rmByPerformance,
+				long rmByRedundancy, double candidateAccuracy, long instancesNanos, long[] phaseNanos) {
+			this.period = period;
+			this.instancesSeen = instancesSeen;
+			this.density = density;
+			this.avgDegree = avgDegree;
+			this.numVertex = numVertex;
+			this.numEdges = numEdges;
+			this.numSubnetworks = numSubnetworks;
+			this.ties = ties;
+			this.accuracy = accuracy;
+			this.rmByPerformance = rmByPerformance;
+			this.rmByRedundancy = rmByRedundancy;
+			this.candidateAccuracy = candidateAccuracy;
+			this.instancesNanos = instancesNanos;
+			this.phaseNanos = phaseNanos.clone();
+		}
+
+		/**
+		 * @param instancesNanos time spent on the instances of the period
+		 * @param phaseNanos time spent on each phase of the update (see PHASES)
+		 * @return the same measurements with these timings */
+		public Snapshot withTimings(long instancesNanos, long[] phaseNanos) {
+			return new Snapshot(period, instancesSeen, density, avgDegree, numVertex, numEdges, numSubnetworks,
+					ties, accuracy, rmByPerformance, rmByRedundancy, candidateAccuracy, instancesNanos, phaseNanos);
+		}
+	}
+
+	/**
+	 * Start serving on the loopback interface only (the endpoint is not authenticated).
+	 * @param port */
+	public NetworkMetricsServer(int port) throws IOException {
+		this(InetAddress.getLoopbackAddress(), port);
+	}
+
+	/**
+	 * Start serving on an address (e.g. 0.0.0.0 for every interface).
+	 * @param address
+	 * @param port */
+	public NetworkMetricsServer(InetAddress address, int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = render(snapshot.get()).getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "sae-metrics");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Replace the snapshot served. Called by the network at the end of every update.
+	 * @param s */
+	public void publish(Snapshot s) {
+		snapshot.set(s);
+	}
+
+	/**
+	 * @return port the server listens on (useful if it was created with port 0) */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	protected static String render(Snapshot s) {
+		StringBuilder str = new StringBuilder(2000);
+		if(s == null)
+			return str.toString();
+		gauge(str, "period", "Last period (network update)", s.period);
+		counter(str, "instances_seen_total", "Instances seen until the last update", s.instancesSeen);
+		gauge(str, "density", "Network density", s.density);
+		gauge(str, "avg_degree", "Network average degree", s.avgDegree);
+		gauge(str, "vertex_count", "Experts in the network (vertices)", s.numVertex);
+		gauge(str, "edges_count", "Active connections (edges)", s.numEdges);
+		gauge(str, "subnetworks", "Subnetworks used for voting", s.numSubnetworks);
+		gauge(str, "ties", "Ties among subnetworks during the period", s.ties);
+		gauge(str, "network_accuracy", "Network accuracy during the period", s.accuracy);
+		gauge(str, "removed_by_performance", "Experts removed by performance (MinE)", s.rmByPerformance);
+		gauge(str, "removed_by_redundancy", "Experts removed by redundancy (ScMax)", s.rmByRedundancy);
+		gauge(str, "candidate_accuracy", "Candidate accuracy during the period", s.candidateAccuracy);
+
+		str.append("# HELP ").append(PREFIX).append("phase_seconds Seconds spent on each phase of the last period\n");
+		str.append("# TYPE ").append(PREFIX).append("phase_seconds gauge\n");
+		phase(str, "instances", s.instancesNanos / 1e9);
+		for(int i = 0 ; i < PHASES.length ; ++i)
+			phase(str, PHASES[i], s.phaseNanos[i] / 1e9);
+		return str.toString();
+	}
+
+	private static void gauge(StringBuilder str, String name, String help, double value) {
+		metric(str, name, help, "gauge", value);
+	}
+
+	private static void counter(StringBuilder str, String name, String help, double value) {
+		metric(str, name, help, "counter", value);
+	}
+
+	private static void metric(StringBuilder str, String name, String help, String type, double value) {
+		str.append("# HELP ").append(PREFIX).append(name).append(" ").append(help).append("\n");
+		str.append("# TYPE ").append(PREFIX).append(name).append(" ").append(type).append("\n");
+		str.append(PREFIX).append(name).append(" ").append(format(value)).append("\n");
+	}
+
+	private static void phase(StringBuilder str, String phase, double seconds) {
+		str.append(PREFIX).append("phase_seconds{phase=\"").append(phase).append("\"} ")
+			.append(format(seconds)).append("\n");
+	}
+
+	private static String format(double value) {
+		if(Double.isNaN(value))
+			return "NaN";
+		if(value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		return Double.toString(value);
+	}
+}
@@ -22,7 +22,7 @@ public class OutputNetworkMeasurements {
 			writeBuffer = new BufferedWriter(measurementsFile);
 			
 			StringBuilder header = new StringBuilder(200);
-			header.append("period;instances seen;density;avg degree;vertex count;edges count;#n(n-1)/2;#subnetworks;#ties;network accuracy;#rm by performance;#rm by redundancy;candidate accuracy\n");
+			header.append("period;instances seen;density;avg degree;vertex count;edges count;#n(n-1)/2;#subnetworks;#ties;network accuracy;#rm by performance;#rm by redundancy;candidate accuracy;expert limit\n");
 			writeBuffer.write(header.toString());
 			writeBuffer.flush();
 		}
@@ -34,7 +34,7 @@ public class OutputNetworkMeasurements {
 	
 	public void addMeasurements(int period, long instancesSeen, double density, double avgDegree, long numVertex, 
 			long numEdges, int numSubnetworks, long ties, double txR, long rmByPerformance, long rmByRedundancy, 
-			double candidateAccuracy)
+			double candidateAccuracy, int expertLimit)
 	{
 		StringBuilder measurements = new StringBuilder(200);
 		measurements.append(period);
@@ -62,6 +62,8 @@ public class OutputNetworkMeasurements {
 		measurements.append(rmByRedundancy);
 		measurements.append(";");
 		measurements.append(candidateAccuracy);
+		measurements.append(";");
+		measurements.append(expertLimit);
 		measurements.append("\n");
 		try {
 			writeBuffer.write(measurements.toString());
@@ -0,0 +1,370 @@
+package moa.classifiers.sae;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/* Compact alternative to OutputPajek. Instead of writing every network as text, it writes
+ * (gzip-compressed) what changed since the previous period: vertices added or removed,
+ * vertices whose candidate flag or correctly classified counter changed, edges (active
+ * connections) added or removed and edges whose same actions counter changed. Counters are
+ * kept as integers, thus accuracy (label) and Sc (edge value) are exactly the ones
+ * OutputPajek writes. Every keyframeInterval periods the whole network is written. Records
+ * have no lengths nor sync markers, thus a damaged file can not be read past the first
+ * damaged record (toPajek stops there with an IOException).
+ *
+ * The standard Pajek project (.paj) is obtained with toPajek(...) (or main), vertices of
+ * each network are numbered by expert ID. The log is flushed after every period, therefore
+ * it may be converted even if it was not closed (e.g. the run was interrupted).
+ *
+ * Format: MAGIC, VERSION, keyframe interval, then one record per period: type (KEYFRAME or
+ * DELTA), ticks and period length, followed by the vertices and edges (see addNetwork).
+ * Integers are written as variable length integers (7 bits per byte). */
+public class OutputPajekDelta
+{
+	public static final int MAGIC = 0x53414550;
+	public static final int VERSION = 1;
+	private static final byte KEYFRAME = 1;
+	private static final byte DELTA = 2;
+
+	private DataOutputStream out;
+	private int keyframeInterval;
+	private int networkCounter = 0;
+	/* State written so far: vertex ID -> (createdOn, candidate flag, correctly classified)
+	 * and connection ID -> same actions (active connections only) */
+	private HashMap<Integer, long[]> vertices = new HashMap<Integer, long[]>();
+	private HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+
+	/* Create and prepare the network history (.pajd) file for writting */
+	public OutputPajekDelta(String fileName, Date now, int keyframeInterval)
+	{
+		DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss");
+		fileName  += " " + dateFormat.format(now) + ".pajd";
+		this.keyframeInterval = Math.max(1, keyframeInterval);
+		try
+		{
+			out = new DataOutputStream(new GZIPOutputStream(
+					new BufferedOutputStream(new FileOutputStream(fileName)), 1 << 16, true));
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			writeVarLong(out, this.keyframeInterval);
+			out.flush();
+		}
+		catch(Exception e)
+		{
+			System.out.println("Not possible to create " + fileName);
+		}
+	}
+
+	/** Append network (what changed since last period) to the history file */
+	public void addNetwork(Connections connections, int periodLength, long ticks)
+	{
+		if(out == null)
+			return;
+		boolean keyframe = networkCounter % keyframeInterval == 0;
+		++networkCounter;
+
+		HashMap<Integer, long[]> currentVertices = new HashMap<Integer, long[]>(connections.expertsSize() * 2);
+		for(Expert e : connections.getExperts().values())
+			currentVertices.put(e.getID(), new long[] {e.getCreatedOn(), e.candidate ? 1 : 0, e.getCorrectlyClassified()});
+		HashMap<Long, Integer> currentEdges = new HashMap<Long, Integer>();
+		for(Connection c : connections.getConnections().values())
+			if(c.isActive())
+				currentEdges.put(c.getID(), c.sameActions);
+
+		try
+		{
+			out.writeByte(keyframe ? KEYFRAME : DELTA);
+			writeVarLong(out, ticks);
+			writeVarLong(out, periodLength);
+			if(keyframe)
+			{
+				writeVertices(currentVertices, true);
+				writeEdges(currentEdges);
+			}
+			else
+			{
+				/* Removed, added and changed vertices */
+				List<Integer> removedVertices = new ArrayList<Integer>();
+				for(Integer id : vertices.keySet())
+					if(!currentVertices.containsKey(id))
+						removedVertices.add(id);
+				writeVarLong(out, removedVertices.size());
+				for(Integer id : removedVertices)
+					writeVarLong(out, id);
+				HashMap<Integer, long[]> added = new HashMap<Integer, long[]>(), changed = new HashMap<Integer, long[]>();
+				for(Entry<Integer, long[]> v : currentVertices.entrySet())
+				{
+					long[] previous = vertices.get(v.getKey());
+					if(previous == null)
+						added.put(v.getKey(), v.getValue());
+					else if(previous[1] != v.getValue()[1] || previous[2] != v.getValue()[2])
+						changed.put(v.getKey(), v.getValue());
+				}
+				writeVertices(added, true);
+				writeVertices(changed, false);
+
+				/* Removed, added and changed edges */
+				List<Long> removedEdges = new ArrayList<Long>();
+				for(Long id : edges.keySet())
+					if(!currentEdges.containsKey(id))
+						removedEdges.add(id);
+				writeVarLong(out, removedEdges.size());
+				for(Long id : removedEdges)
+					writeVarLong(out, id);
+				HashMap<Long, Integer> addedEdges = new HashMap<Long, Integer>(), changedEdges = new HashMap<Long, Integer>();
+				for(Entry<Long, Integer> e : currentEdges.entrySet())
+				{
+					Integer previous = edges.get(e.getKey());
+					if(previous == null)
+						addedEdges.put(e.getKey(), e.getValue());
+					else if(!previous.equals(e.getValue()))
+						changedEdges.put(e.getKey(), e.getValue());
+				}
+				writeEdges(addedEdges);
+				writeEdges(changedEdges);
+			}
+			out.flush();
+		}
+		catch(IOException e)
+		{
+			System.out.println("Not possible to add network " +
+					e.getMessage() + "\n");
+			e.printStackTrace();
+		}
+		vertices = currentVertices;
+		edges = currentEdges;
+	}
+
+	private void writeVertices(HashMap<Integer, long[]> v, boolean withCreatedOn) throws IOException
+	{
+		writeVarLong(out, v.size());
+		for(Entry<Integer, long[]> e : v.entrySet())
+		{
+			writeVarLong(out, e.getKey());
+			if(withCreatedOn)
+				writeVarLong(out, e.getValue()[0]);
+			writeVarLong(out, e.getValue()[1]);
+			writeVarLong(out, e.getValue()[2]);
+		}
+	}
+
+	/* Edges are written as connection IDs (Cantor pair of both experts IDs) */
+	private void writeEdges(HashMap<Long, Integer> e) throws IOException
+	{
+		writeVarLong(out, e.size());
+		for(Entry<Long, Integer> edge : e.entrySet())
+		{
+			writeVarLong(out, edge.getKey());
+			writeVarLong(out, edge.getValue());
+		}
+	}
+
+	public void close()
+	{
+		if(out == null)
+			return;
+		try
+		{
+			out.close();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Not possible to close NETWORK file" +
+				e.getMessage() + "\n");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Write the Pajek project (.paj) with every network in a history file.
+	 * A truncated history (e.g. not closed) is converted up to its last complete period.
+	 * @param historyFile
+	 * @param pajekFile */
+	public static void toPajek(String historyFile, String pajekFile) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new GZIPInputStream(
+				new BufferedInputStream(new FileInputStream(historyFile)), 1 << 16));
+		BufferedWriter writer = new BufferedWriter(new FileWriter(pajekFile));
+		try
+		{
+			if(in.readInt() != MAGIC)
+				throw new IOException("Not a network history file: " + historyFile);
+			int version = in.readByte();
+			if(version != VERSION)
+				throw new IOException("Unsupported network history version " + version);
+			readVarLong(in);
+
+			HashMap<Integer, long[]> vertices = new HashMap<Integer, long[]>();
+			HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+			int networkCounter = 0;
+			while(true)
+			{
+				byte type;
+				long ticks;
+				int periodLength;
+				try
+				{
+					type = in.readByte();
+					ticks = readVarLong(in);
+					periodLength = (int) readVarLong(in);
+					if(type == KEYFRAME)
+					{
+						vertices.clear();
+						edges.clear();
+					}
+					else if(type == DELTA)
+					{
+						long removed = readVarLong(in);
+						for(long i = 0 ; i < removed ; ++i)
+							vertices.remove((int) readVarLong(in));
+					}
+					else
+						throw new IOException("Corrupted network history (record type " + type + ")");
+					readVertices(in, vertices, true);
+					if(type == DELTA)
+						readVertices(in, vertices, false);
+					if(type == DELTA)
+					{
+						long removed = readVarLong(in);
+						for(long i = 0 ; i < removed ; ++i)
+							edges.remove(readVarLong(in));
+					}
+					readEdges(in, edges);
+					if(type == DELTA)
+						readEdges(in, edges);
+				}
+				catch(EOFException e)
+				{
+					/* End of the history (or last period incomplete) */
+					break;
+				}
+				writer.write(pajekNetwork(++networkCounter, vertices, edges, periodLength, ticks));
+			}
+		}
+		finally
+		{
+			in.close();
+			writer.close();
+		}
+	}
+
+	private static void readVertices(DataInputStream in, HashMap<Integer, long[]> vertices, boolean withCreatedOn)
+			throws IOException
+	{
+		long n = readVarLong(in);
+		for(long i = 0 ; i < n ; ++i)
+		{
+			int id = (int) readVarLong(in);
+			long createdOn = withCreatedOn ? readVarLong(in) : vertices.get(id)[0];
+			vertices.put(id, new long[] {createdOn, readVarLong(in), readVarLong(in)});
+		}
+	}
+
+	private static void readEdges(DataInputStream in, HashMap<Long, Integer> edges) throws IOException
+	{
+		long n = readVarLong(in);
+		for(long i = 0 ; i < n ; ++i)
+		{
+			long id = readVarLong(in);
+			edges.put(id, (int) readVarLong(in));
+		}
+	}
+
+	/* Same text OutputPajek.addNetwork(Connections, ...) writes, but vertices are sorted by ID */
+	private static String pajekNetwork(int networkCounter, HashMap<Integer, long[]> vertices,
+			HashMap<Long, Integer> edges, int periodLength, long ticks)
+	{
+		StringBuilder net = new StringBuilder(100 + 40 * (vertices.size() + edges.size()));
+		net.append("*Network period");
+		net.append(networkCounter);
+		net.append("\n*Vertices ");
+		net.append(vertices.size());
+		net.append("\n");
+
+		List<Integer> ids = new ArrayList<Integer>(vertices.keySet());
+		Collections.sort(ids);
+		HashMap<Integer, Integer> numbers = new HashMap<Integer, Integer>(ids.size() * 2);
+		int verticesCounter = 1;
+		for(Integer id : ids)
+		{
+			long[] v = vertices.get(id);
+			numbers.put(id, verticesCounter);
+			net.append(verticesCounter++);
+			net.append(" \"");
+			if(v[1] == 1)
+				net.append("*");
+			/* Same as Expert.nodeLabel */
+			net.append(id);
+			net.append("-");
+			net.append(String.format("%.2f", periodLength > 0 ? v[2] / (double) periodLength : 0.0));
+			net.append("-");
+			net.append(ticks - v[0]);
+			net.append("\"\n");
+		}
+
+		net.append("*Edges\n");
+		for(Entry<Long, Integer> e : edges.entrySet())
+		{
+			int[] pair = Connections.ReverseCantorPair(e.getKey());
+			net.append(numbers.get(pair[0]));
+			net.append(" ");
+			net.append(numbers.get(pair[1]));
+			net.append(" ");
+			net.append(e.getValue() / (double) periodLength);
+			net.append("\n");
+		}
+		net.append("\n\n");
+		return net.toString();
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException
+	{
+		while((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException
+	{
+		long value = 0;
+		for(int shift = 0 ; ; shift += 7)
+		{
+			byte b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return value;
+		}
+	}
+
+	/** Usage: OutputPajekDelta history.pajd network.paj */
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 2)
+		{
+			System.out.println("Usage: OutputPajekDelta <history.pajd> <network.paj>");
+			return;
+		}
+		toPajek(args[0], args[1]);
+	}
+}
@@ -0,0 +1,53 @@
+package moa.classifiers.sae;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.Classifier;
+import moa.classifiers.sae.vote.AbstractVote;
+
+/**
+ * Immutable view of the network used to score instances from any number of threads
+ * while another thread trains the network. It holds frozen copies of the learners of
+ * every expert in a subnetwork, the weight of each expert vote (as given by the voting
+ * algorithm when the view was published) and the subnetworks as arrays of indexes
+ * into the learners array.
+ *
+ * Views are published by Network (see Network.publishScoringView) and replaced as a
+ * whole, so scoring never has to synchronize with training.
+ */
+public class ScoringView {
+	protected final int[][] subnetworks;
+	protected final Classifier[] learners;
+	protected final double[] weights;
+	protected final AbstractVote votingAlgorithm;
+
+	public ScoringView(int[][] subnetworks, Classifier[] learners, double[] weights,
+			AbstractVote votingAlgorithm) {
+		this.subnetworks = subnetworks;
+		this.learners = learners;
+		this.weights = weights;
+		this.votingAlgorithm = votingAlgorithm;
+	}
+
+	/**
+	 * Predict the class of an instance without side effects.
+	 * @param instance
+	 * @return array where the position with the highest value indicates the predicted class */
+	public double[] score(Instance instance) {
+		return votingAlgorithm.scoreVote(instance, this);
+	}
+
+	/* Accessors */
+	public int getSubnetworksSize() {
+		return subnetworks.length;
+	}
+	public int[] getSubnetwork(int index) {
+		return subnetworks[index];
+	}
+	public Classifier getLearner(int expert) {
+		return learners[expert];
+	}
+	public double getWeight(int expert) {
+		return weights[expert];
+	}
+}
@@ -1,19 +1,36 @@
 package moa.classifiers.sae;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 
 import com.yahoo.labs.samoa.instances.Instance;
+import moa.classifiers.Classifier;
+import moa.classifiers.sae.combination.BoundedMaximalCliques;
 import moa.classifiers.sae.combination.ICombination;
 import moa.classifiers.sae.vote.*;
 
 public class Subnetworks {
-	/* All subnetworks associated with 'network' attribute */
-	protected Collection<Set<Integer>> subnetworks;
+	/* All subnetworks associated with 'network' attribute. The collection is replaced as 
+	 * a whole (never modified in place) whenever subnetworks are updated. */
+	protected volatile Collection<Set<Integer>> subnetworks;
+	/* Subnetworks being generated by a worker thread (null if there are none) */
+	protected Future<Collection<Set<Integer>>> pending = null;
+	/* Number of instances left before the pending subnetworks are published */
+	protected int pendingLag;
+	/* Vertices in none of the current subnetworks while new ones are pending (e.g. the 
+	 * candidate just added). They do not vote, but they must be tested (see Network.test). */
+	protected List<Integer> uncovered = new ArrayList<Integer>(0);
 	/* Algorithm used to combine classifiers: MaximalCliques, WeaklyConnectedComponents, ... */
 	protected ICombination combinationAlgorithm;
 	/* Algorithm used for voting. Tie break is part of the algorithm. */
@@ -64,10 +81,101 @@ public class Subnetworks {
 	
 	/** Update subnetworks structure according to network current structure. */
 	public void update() {
-		subnetworks = null;
+		pending = null;
+		uncovered.clear();
 		subnetworks = combinationAlgorithm.combine(network);
 		votingAlgorithm.update();
 	}
+	
+	/**
+	 * Update subnetworks structure in background. The combination algorithm runs on a 
+	 * worker thread over a copy of the network current structure, while predictions 
+	 * keep using the previous subnetworks (without the experts removed from the network). 
+	 * Experts in none of them (e.g. the candidate just added) are tested without voting. 
+	 * The new subnetworks are published after 'lag' more instances (see instanceSeen()), 
+	 * thus results do not depend on how long the worker takes. 
+	 * @param lag number of instances to wait before publishing (0 = same as update()) */
+	public void scheduleUpdate(int lag) {
+		if(lag <= 0) {
+			update();
+			return;
+		}
+		/* Only one update at a time */
+		publishPending();
+		
+		final Graph<Integer, Long> snapshot = network.copy();
+		final ICombination combination = combinationAlgorithm;
+		pending = Workers.pool().submit(new Callable<Collection<Set<Integer>>>() {
+			@Override
+			public Collection<Set<Integer>> call() {
+				return combination.combine(snapshot);
+			}
+		});
+		pendingLag = lag;
+		subnetworks = withoutRemovedExperts(subnetworks);
+		/* Nothing left to predict with, it is necessary to wait */
+		if(subnetworks.isEmpty())
+			publishPending();
+		else
+			uncovered = uncoveredVertices(subnetworks);
+		votingAlgorithm.update();
+	}
+	
+	/**
+	 * Count one more instance towards the publication of pending subnetworks. */
+	public void instanceSeen() {
+		if(pending != null && --pendingLag <= 0)
+			publishPending();
+	}
+	
+	/**
+	 * Publish pending subnetworks (if any), waiting for the worker thread if needed. */
+	public void publishPending() {
+		if(pending == null)
+			return;
+		Collection<Set<Integer>> updated;
+		try {
+			updated = pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			updated = combinationAlgorithm.combine(network);
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			updated = combinationAlgorithm.combine(network);
+		}
+		pending = null;
+		uncovered.clear();
+		subnetworks = updated;
+	}
+	
+	/**
+	 * Copy of the given subnetworks without the vertices that are no longer in the network. 
+	 * Subnetworks left empty are discarded. */
+	private Collection<Set<Integer>> withoutRemovedExperts(Collection<Set<Integer>> current) {
+		Collection<Set<Integer>> pruned = new ArrayList<Set<Integer>>(current.size());
+		for(Set<Integer> subnetwork : current) {
+			Set<Integer> prunedSubnetwork = new HashSet<Integer>(subnetwork.size());
+			for(Integer vertex : subnetwork)
+				if(network.getNode(vertex) != null)
+					prunedSubnetwork.add(vertex);
+			if(!prunedSubnetwork.isEmpty())
+				pruned.add(prunedSubnetwork);
+		}
+		return pruned;
+	}
+
+	/**
+	 * @return vertices of the network that are in none of the given subnetworks */
+	private List<Integer> uncoveredVertices(Collection<Set<Integer>> current) {
+		Set<Integer> covered = new HashSet<Integer>();
+		for(Set<Integer> subnetwork : current)
+			covered.addAll(subnetwork);
+		List<Integer> vertices = new ArrayList<Integer>(0);
+		for(Integer vertex : network.getNodesIDs())
+			if(!covered.contains(vertex))
+				vertices.add(vertex);
+		return vertices;
+	}
 
 	/**
 	 * Combine votes within each subnetwork, afterwards combine subnetworks votes on the network vote. 
@@ -78,6 +186,82 @@ public class Subnetworks {
 		return votingAlgorithm.predictVote(instance, periodLength, ticks, subnetworks);
 	}
 	
+	/**
+	 * Same as combineVotes(...), but using the last prediction of every expert 
+	 * (see AbstractVote.predictCachedVote). 
+	 * @param instance
+	 * @param periodLength
+	 * @param ticks
+	 * @return array with votes, where position with max value is the predicted */
+	public double[] combineCachedVotes(Instance instance, int periodLength, long ticks) {
+		return votingAlgorithm.predictCachedVote(instance, periodLength, ticks, subnetworks);
+	}
+	
+	/**
+	 * Build an immutable view of the current subnetworks for concurrent scoring. Every 
+	 * expert learner in a subnetwork is copied, therefore training does not affect the view. 
+	 * @param periodLength
+	 * @param ticks
+	 * @return view over the current subnetworks */
+	public ScoringView buildScoringView(int periodLength, long ticks) {
+		Collection<Set<Integer>> current = subnetworks;
+		HashMap<Integer, Integer> index = new HashMap<Integer, Integer>(experts.size() * 2);
+		ArrayList<Classifier> learners = new ArrayList<Classifier>(experts.size());
+		ArrayList<Double> weights = new ArrayList<Double>(experts.size());
+		int[][] view = new int[current.size()][];
+		int s = 0;
+		for(Set<Integer> subnetwork : current) {
+			view[s] = new int[subnetwork.size()];
+			int v = 0;
+			for(Integer vertex : subnetwork) {
+				Integer position = index.get(vertex);
+				if(position == null) {
+					Expert e = experts.get(vertex);
+					position = learners.size();
+					index.put(vertex, position);
+					learners.add(e.copyLearner());
+					weights.add(votingAlgorithm.expertWeight(e, periodLength, ticks));
+				}
+				view[s][v++] = position;
+			}
+			++s;
+		}
+		double[] viewWeights = new double[weights.size()];
+		for(int i = 0 ; i < viewWeights.length ; ++i)
+			viewWeights[i] = weights.get(i);
+		return new ScoringView(view, learners.toArray(new Classifier[learners.size()]), 
+				viewWeights, votingAlgorithm);
+	}
+	
+	/**
+	 * Replace current and pending subnetworks (used to restore checkpoints). 
+	 * @param current subnetworks used for predictions
+	 * @param updated subnetworks to be published after lag instances (null if there are none)
+	 * @param lag */
+	public void restore(Collection<Set<Integer>> current, Collection<Set<Integer>> updated, int lag) {
+		subnetworks = current;
+		pending = updated == null ? null : CompletableFuture.completedFuture(updated);
+		pendingLag = lag;
+		uncovered = updated == null ? new ArrayList<Integer>(0) : uncoveredVertices(current);
+	}
+	
+	/* Mutators */
+	public void setEarlyExitVoting(boolean earlyExit) {
+		votingAlgorithm.setEarlyExit(earlyExit);
+	}
+	public void setRandom(Random random) {
+		votingAlgorithm.setRandom(random);
+	}
+	
+	/**
+	 * Limits of the combination algorithm, only used by BoundedMaximalCliques.
+	 * @param timeBudget milliseconds (0 = unlimited)
+	 * @param maxSubnetworks */
+	public void setCombinationLimits(long timeBudget, int maxSubnetworks) {
+		if(combinationAlgorithm instanceof BoundedMaximalCliques)
+			((BoundedMaximalCliques) combinationAlgorithm).setLimits(timeBudget, maxSubnetworks);
+	}
+	
 	/* Accessors */
 	public long getNetTieCounter() {
 		return votingAlgorithm.getNetTieCounter();
@@ -85,4 +269,29 @@ public class Subnetworks {
 	public int getSubnetworksSize() {
 		return subnetworks.size();
 	}
+	public Collection<Set<Integer>> getSubnetworks() {
+		return subnetworks;
+	}
+	/** @return subnetworks that will be published after getPendingLag() instances, 
+	 * waiting for the worker thread if needed (null if there are none) */
+	public Collection<Set<Integer>> getPendingSubnetworks() {
+		if(pending == null)
+			return null;
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+		return combinationAlgorithm.combine(network);
+	}
+	public int getPendingLag() {
+		return pendingLag;
+	}
+	/** @return vertices that must be tested although they do not vote (empty unless 
+	 * subnetworks are pending) */
+	public List<Integer> getUncoveredVertices() {
+		return uncovered;
+	}
 }
@@ -0,0 +1,120 @@
+package moa.classifiers.sae;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Records every instance seen by the network: its true class and the class predicted by
+ * each expert (including the candidate), so that combination and voting methods can be
+ * evaluated later without the base learners (see runner.TraceReplay).
+ *
+ * The file is written through a memory-mapped window that moves forward (the file grows)
+ * as records are added, and it is truncated to its length on close. Format (big endian):
+ *
+ *   header: int MAGIC, int VERSION
+ *   EPOCH:  byte 1, int epoch, long ticks, int periodLength, int numClasses, int numExperts,
+ *           numExperts x (int ID, byte candidate), experts in ascending ID order
+ *   TICK:   byte 2, short class, numExperts x short predicted class (-1 = no prediction)
+ *   end:    byte 0 (or the end of the file)
+ *
+ * An epoch starts at every period (after the network update), ticks belong to the last
+ * epoch before them and list predictions in the order of its experts.
+ */
+public class TraceRecorder {
+	public static final int MAGIC = 0x53414554;
+	public static final int VERSION = 1;
+	public static final byte END = 0, EPOCH = 1, TICK = 2;
+	/* Size of each mapped window of the file */
+	private static final long WINDOW_SIZE = 1L << 26;
+
+	protected final RandomAccessFile raf;
+	protected final FileChannel channel;
+	/* Current window and its position within the file */
+	protected MappedByteBuffer window;
+	protected long windowStart;
+	/* Current epoch (0 = none yet) and its experts, in the order of their predictions */
+	protected int epoch = 0;
+	protected Expert[] epochExperts;
+
+	public TraceRecorder(File file) throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		windowStart = 0;
+		window = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW_SIZE);
+		window.putInt(MAGIC);
+		window.putInt(VERSION);
+	}
+
+	/**
+	 * Start a new epoch, i.e. a new set of experts.
+	 * @param ticks time of the first instance of the epoch
+	 * @param periodLength
+	 * @param numClasses
+	 * @param experts every expert, including the candidate */
+	public void startEpoch(long ticks, int periodLength, int numClasses, Collection<Expert> experts) throws IOException {
+		List<Expert> sorted = new ArrayList<Expert>(experts);
+		Collections.sort(sorted, new Comparator<Expert>() {
+			@Override
+			public int compare(Expert e1, Expert e2) {
+				return e1.getID() < e2.getID() ? -1 : (e1.getID() == e2.getID() ? 0 : 1);
+			}
+		});
+		epochExperts = sorted.toArray(new Expert[sorted.size()]);
+		ensure(25 + 5 * epochExperts.length);
+		window.put(EPOCH);
+		window.putInt(++epoch);
+		window.putLong(ticks);
+		window.putInt(periodLength);
+		window.putInt(numClasses);
+		window.putInt(epochExperts.length);
+		for(Expert e : epochExperts) {
+			window.putInt(e.getID());
+			window.put((byte) (e.isCandidate() ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Record an instance, after every expert predicted it.
+	 * @param classValue true class */
+	public void recordTick(int classValue) throws IOException {
+		ensure(3 + 2 * epochExperts.length);
+		window.put(TICK);
+		window.putShort((short) classValue);
+		for(Expert e : epochExperts)
+			window.putShort((short) e.getLastPredictedClass());
+	}
+
+	public void close() {
+		if(window == null)
+			return;
+		try {
+			long length = windowStart + window.position();
+			window.force();
+			window = null;
+			channel.truncate(length);
+			channel.close();
+			raf.close();
+		} catch (IOException e) {
+			System.out.println("Not possible to close TRACE file " + e.getMessage() + "\n");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Move the window forward (growing the file) if it does not have room for bytes more bytes. */
+	protected void ensure(int bytes) throws IOException {
+		if(window.remaining() >= bytes)
+			return;
+		windowStart += window.position();
+		window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, Math.max(WINDOW_SIZE, bytes));
+	}
+}
@@ -0,0 +1,21 @@
+package moa.classifiers.sae;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Pool of worker threads shared by every network in the JVM. It is used to take
+ * work off the training thread (e.g. rebuilding subnetworks). Its threads are daemons,
+ * thus they never prevent the JVM from exiting. */
+public class Workers {
+	private static ForkJoinPool pool = null;
+
+	private Workers() {
+	}
+
+	/** @return the shared pool (created on first use, one thread per available processor) */
+	public static synchronized ForkJoinPool pool() {
+		if(pool == null)
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return pool;
+	}
+}
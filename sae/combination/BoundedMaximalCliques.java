@@ -0,0 +1,113 @@
+package  moa.classifiers.sae.combination;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import moa.classifiers.sae.Graph;
+
+/**
+ * Maximal cliques (as MaximalCliques) with hard limits on the time spent enumerating them
+ * and on the number of subnetworks, which is the number of vote rounds per instance
+ * (see AbstractVote).
+ *
+ * Cliques are enumerated in degeneracy order (see ParallelMaximalCliques) until the time
+ * budget runs out or there are more than maxSubnetworks cliques. In either case the partial
+ * enumeration is discarded and vertices are partitioned by a greedy clique cover into at most
+ * maxSubnetworks groups: vertices, from highest to lowest degree, join the first group they
+ * are adjacent to entirely, or start a new group. Once there are maxSubnetworks groups, a
+ * vertex that fits none of them joins the group with most of its neighbors, thus such groups
+ * are not cliques.
+ */
+public class BoundedMaximalCliques implements ICombination {
+	/* Time budget in milliseconds (0 = unlimited) */
+	private long timeBudget = 100;
+	/* Maximum number of subnetworks */
+	private int maxSubnetworks = 100;
+	/* Whether the greedy cover was used at the last call */
+	private volatile boolean lastCovered = false;
+
+	/**
+	 * @param timeBudget milliseconds (0 = unlimited)
+	 * @param maxSubnetworks maximum number of cliques (or groups) */
+	public void setLimits(long timeBudget, int maxSubnetworks) {
+		this.timeBudget = timeBudget;
+		this.maxSubnetworks = Math.max(1, maxSubnetworks);
+	}
+
+	@Override
+	public Collection<Set<Integer>> combine(Graph<Integer, Long> network) {
+		PivotBronKerbosch graph = new PivotBronKerbosch(network);
+		long deadline = timeBudget > 0 ? System.nanoTime() + timeBudget * 1000000L : Long.MAX_VALUE;
+		List<int[]> cliques = new ArrayList<int[]>();
+		BitSet previous = new BitSet(graph.size());
+		boolean complete = true;
+		for(int v : graph.degeneracyOrder()) {
+			if(!graph.cliquesOf(v, previous, cliques, deadline, maxSubnetworks)) {
+				complete = false;
+				break;
+			}
+			previous.set(v);
+		}
+		lastCovered = !complete;
+		if(!complete)
+			cliques = greedyCover(graph);
+		return PivotBronKerbosch.toSets(cliques);
+	}
+
+	/**
+	 * @return whether the last subnetworks are a greedy cover, i.e. a limit was reached */
+	public boolean isLastCovered() {
+		return lastCovered;
+	}
+
+	protected List<int[]> greedyCover(final PivotBronKerbosch graph) {
+		List<Integer> vertices = new ArrayList<Integer>(graph.size());
+		for(int v = 0 ; v < graph.size() ; ++v)
+			vertices.add(v);
+		/* Highest degree first (ties by ID), they are the hardest to place */
+		Collections.sort(vertices, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer u, Integer v) {
+				int du = graph.neighbors[u].length, dv = graph.neighbors[v].length;
+				return du != dv ? dv - du : u - v;
+			}
+		});
+		List<BitSet> groups = new ArrayList<BitSet>();
+		for(int v : vertices) {
+			BitSet best = null;
+			int bestNeighbors = -1;
+			for(BitSet group : groups) {
+				BitSet common = (BitSet) group.clone();
+				common.and(graph.adjacency[v]);
+				int neighbors = common.cardinality();
+				if(neighbors == group.cardinality()) {
+					best = group;
+					break;
+				}
+				if(groups.size() >= maxSubnetworks && neighbors > bestNeighbors) {
+					best = group;
+					bestNeighbors = neighbors;
+				}
+			}
+			if(best == null) {
+				best = new BitSet(graph.size());
+				groups.add(best);
+			}
+			best.set(v);
+		}
+		List<int[]> cover = new ArrayList<int[]>(groups.size());
+		for(BitSet group : groups) {
+			int[] ids = new int[group.cardinality()];
+			int i = 0;
+			for(int v = group.nextSetBit(0) ; v >= 0 ; v = group.nextSetBit(v + 1))
+				ids[i++] = graph.ids[v];
+			cover.add(ids);
+		}
+		return cover;
+	}
+}
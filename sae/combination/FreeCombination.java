@@ -14,7 +14,9 @@ public class FreeCombination implements ICombination {
 
 	@Override
 	public Collection<Set<Integer>> combine(Graph<Integer, Long> network) {
-		Set<Integer> allVertices = new HashSet<Integer>(network.getNodesIDs());
+		Set<Integer> allVertices = new HashSet<Integer>();
+		for(int i = 0 ; i < network.getNodesQuantity() ; ++i)
+			allVertices.add(network.nodeAt(i));
 		Collection<Set<Integer>> wholeGraph = new ArrayList<Set<Integer>>();
 		wholeGraph.add(allVertices);
 		return wholeGraph;
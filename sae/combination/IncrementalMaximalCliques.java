@@ -0,0 +1,85 @@
+package  moa.classifiers.sae.combination;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import moa.classifiers.sae.Graph;
+
+/**
+ * Same maximal cliques as MaximalCliques, but kept up to date between calls instead of being
+ * enumerated from scratch every time.
+ *
+ * A vertex is changed if it was added, removed or any of its edges was added or removed since
+ * the last call. A maximal clique without changed vertices is still a maximal clique, since
+ * none of its edges changed and no vertex became adjacent to all of its vertices. Therefore,
+ * only cliques with changed vertices are dropped, and only maximal cliques containing changed
+ * vertices are enumerated: for the i-th changed vertex, those that contain none of the
+ * previous changed vertices (see PivotBronKerbosch.cliquesOf). The cost follows the number
+ * of changed vertices (i.e. the churn of the network) rather than its density.
+ *
+ * Cliques are returned in canonical order (ascending IDs). One object must be used for a
+ * single network, since it keeps the previous structure (see Subnetworks).
+ */
+public class IncrementalMaximalCliques implements ICombination {
+	/* Neighbors (ascending IDs) of every vertex at the last call */
+	private HashMap<Integer, int[]> previousNeighbors = new HashMap<Integer, int[]>();
+	/* Maximal cliques (ascending IDs) at the last call */
+	private List<int[]> previousCliques = new ArrayList<int[]>();
+	/* Changed vertices at the last call */
+	private int changedVertices;
+
+	@Override
+	public synchronized Collection<Set<Integer>> combine(Graph<Integer, Long> network) {
+		PivotBronKerbosch graph = new PivotBronKerbosch(network);
+
+		/* Changed vertices: added or with different neighbors ... */
+		Set<Integer> changed = new HashSet<Integer>();
+		BitSet changedIndexes = new BitSet(graph.size());
+		HashMap<Integer, int[]> neighbors = new HashMap<Integer, int[]>(graph.size() * 2);
+		for(int i = 0 ; i < graph.size() ; ++i) {
+			neighbors.put(graph.ids[i], graph.neighbors[i]);
+			if(!Arrays.equals(previousNeighbors.get(graph.ids[i]), graph.neighbors[i])) {
+				changed.add(graph.ids[i]);
+				changedIndexes.set(i);
+			}
+		}
+		/* ... or removed */
+		for(Integer ID : previousNeighbors.keySet())
+			if(!neighbors.containsKey(ID))
+				changed.add(ID);
+
+		List<int[]> cliques = new ArrayList<int[]>(previousCliques.size() + changed.size());
+		for(int[] clique : previousCliques)
+			if(!containsAny(clique, changed))
+				cliques.add(clique);
+		BitSet done = new BitSet(graph.size());
+		for(int v = changedIndexes.nextSetBit(0) ; v >= 0 ; v = changedIndexes.nextSetBit(v + 1)) {
+			graph.cliquesOf(v, done, cliques);
+			done.set(v);
+		}
+
+		previousNeighbors = neighbors;
+		previousCliques = cliques;
+		changedVertices = changed.size();
+		return PivotBronKerbosch.toSets(new ArrayList<int[]>(cliques));
+	}
+
+	/**
+	 * @return number of vertices whose cliques were enumerated again at the last call */
+	public int getChangedVertices() {
+		return changedVertices;
+	}
+
+	private static boolean containsAny(int[] clique, Set<Integer> vertices) {
+		for(int ID : clique)
+			if(vertices.contains(ID))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,70 @@
+package  moa.classifiers.sae.combination;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+import moa.classifiers.sae.Graph;
+
+/**
+ * Subnetworks are the communities found by weighted label propagation (Raghavan et al.),
+ * where edge weights are the connections Sc. Every vertex starts with its own label, then,
+ * in ascending ID order, each vertex takes the label with the highest total weight among its
+ * neighbors, until no label changes (or MAX_ITERATIONS). Ties keep the current label if it
+ * is among the best, otherwise the smallest label wins, thus the result is deterministic.
+ * Each iteration takes O(|V| + |E|), grouping similar experts like cliques do, but without
+ * the exponential number of subnetworks. Isolated experts form subnetworks of their own.
+ */
+public class LabelPropagation implements ICombination {
+	private static final int MAX_ITERATIONS = 20;
+
+	@Override
+	public Collection<Set<Integer>> combine(Graph<Integer, Long> network) {
+		WeightedAdjacency graph = new WeightedAdjacency(network);
+		int n = graph.size();
+		int[] label = new int[n];
+		for(int v = 0 ; v < n ; ++v)
+			label[v] = v;
+		/* Total weight of each label among the neighbors of the current vertex, labels are
+		 * seen (for the current vertex) if their mark is the current vertex plus one */
+		double[] weight = new double[n];
+		int[] mark = new int[n];
+		int[] seen = new int[n];
+		boolean changed = true;
+		for(int iteration = 0 ; changed && iteration < MAX_ITERATIONS ; ++iteration) {
+			changed = false;
+			for(int v = 0 ; v < n ; ++v) {
+				int[] neighbors = graph.neighbors[v];
+				if(neighbors.length == 0)
+					continue;
+				int seenCount = 0;
+				for(int j = 0 ; j < neighbors.length ; ++j) {
+					int l = label[neighbors[j]];
+					if(mark[l] != v + 1) {
+						mark[l] = v + 1;
+						weight[l] = 0.0;
+						seen[seenCount++] = l;
+					}
+					weight[l] += graph.weights[v][j];
+				}
+				double max = Double.NEGATIVE_INFINITY;
+				for(int i = 0 ; i < seenCount ; ++i)
+					max = Math.max(max, weight[seen[i]]);
+				int best = label[v];
+				if(mark[best] != v + 1 || weight[best] < max) {
+					best = Integer.MAX_VALUE;
+					for(int i = 0 ; i < seenCount ; ++i)
+						if(weight[seen[i]] == max && seen[i] < best)
+							best = seen[i];
+				}
+				if(best != label[v]) {
+					label[v] = best;
+					changed = true;
+				}
+			}
+			/* Marks of the next iteration must not match those of this one */
+			Arrays.fill(mark, 0);
+		}
+		return PivotBronKerbosch.toSets(graph.groups(label));
+	}
+}
@@ -0,0 +1,155 @@
+package  moa.classifiers.sae.combination;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import moa.classifiers.sae.Graph;
+
+/**
+ * Subnetworks are the communities found by the Louvain method (Blondel et al.), maximizing
+ * the weighted modularity, where edge weights are the connections Sc.
+ *
+ * Each level moves vertices, in ascending order, to the neighboring community with the
+ * highest modularity gain (ties keep the current community, otherwise the smallest one wins)
+ * until no vertex moves, then communities are aggregated into the vertices of the next level.
+ * Levels stop once a level moves no vertex. Each pass takes O(|V| + |E|) and the result is
+ * deterministic. Isolated experts (or networks without edges) form subnetworks of their own.
+ */
+public class Louvain implements ICombination {
+	private static final int MAX_PASSES = 20;
+
+	@Override
+	public Collection<Set<Integer>> combine(Graph<Integer, Long> network) {
+		WeightedAdjacency graph = new WeightedAdjacency(network);
+		int n = graph.size();
+		/* Community of every vertex of the network */
+		int[] community = new int[n];
+		for(int v = 0 ; v < n ; ++v)
+			community[v] = v;
+
+		int[][] neighbors = graph.neighbors;
+		double[][] weights = graph.weights;
+		/* Weight of the edges inside each vertex of the current level (counted twice) */
+		double[] loops = new double[n];
+		while(true) {
+			int[] level = moveVertices(neighbors, weights, loops);
+			int communities = 0;
+			for(int c : level)
+				communities = Math.max(communities, c + 1);
+			if(communities == level.length)
+				break;
+			for(int v = 0 ; v < n ; ++v)
+				community[v] = level[community[v]];
+
+			/* Aggregate the communities into the vertices of the next level */
+			double[] nextLoops = new double[communities];
+			List<TreeMap<Integer, Double>> edges = new ArrayList<TreeMap<Integer, Double>>(communities);
+			for(int c = 0 ; c < communities ; ++c)
+				edges.add(new TreeMap<Integer, Double>());
+			for(int v = 0 ; v < level.length ; ++v) {
+				int c = level[v];
+				nextLoops[c] += loops[v];
+				for(int j = 0 ; j < neighbors[v].length ; ++j) {
+					int d = level[neighbors[v][j]];
+					if(d == c)
+						nextLoops[c] += weights[v][j];
+					else {
+						Double w = edges.get(c).get(d);
+						edges.get(c).put(d, (w == null ? 0.0 : w) + weights[v][j]);
+					}
+				}
+			}
+			neighbors = new int[communities][];
+			weights = new double[communities][];
+			for(int c = 0 ; c < communities ; ++c) {
+				neighbors[c] = new int[edges.get(c).size()];
+				weights[c] = new double[edges.get(c).size()];
+				int j = 0;
+				for(Map.Entry<Integer, Double> e : edges.get(c).entrySet()) {
+					neighbors[c][j] = e.getKey();
+					weights[c][j++] = e.getValue();
+				}
+			}
+			loops = nextLoops;
+		}
+		return PivotBronKerbosch.toSets(graph.groups(community));
+	}
+
+	/**
+	 * Local moving phase of a level.
+	 * @return community of every vertex of the level, numbered from 0 in order of first vertex */
+	private static int[] moveVertices(int[][] neighbors, double[][] weights, double[] loops) {
+		int n = neighbors.length;
+		int[] community = new int[n];
+		/* Weighted degree of every vertex, and total degree of every community */
+		double[] degree = new double[n];
+		double[] total = new double[n];
+		double doubleWeight = 0.0;
+		for(int v = 0 ; v < n ; ++v) {
+			community[v] = v;
+			degree[v] = loops[v];
+			for(double w : weights[v])
+				degree[v] += w;
+			total[v] = degree[v];
+			doubleWeight += degree[v];
+		}
+		if(doubleWeight > 0.0) {
+			/* Weight from the current vertex to each community, see LabelPropagation for marks */
+			double[] weight = new double[n];
+			int[] mark = new int[n];
+			int[] seen = new int[n];
+			boolean moved = true;
+			for(int pass = 0 ; moved && pass < MAX_PASSES ; ++pass) {
+				moved = false;
+				for(int v = 0 ; v < n ; ++v) {
+					int current = community[v];
+					total[current] -= degree[v];
+					int seenCount = 0;
+					mark[current] = v + 1;
+					weight[current] = 0.0;
+					seen[seenCount++] = current;
+					for(int j = 0 ; j < neighbors[v].length ; ++j) {
+						int c = community[neighbors[v][j]];
+						if(mark[c] != v + 1) {
+							mark[c] = v + 1;
+							weight[c] = 0.0;
+							seen[seenCount++] = c;
+						}
+						weight[c] += weights[v][j];
+					}
+					int best = current;
+					double bestGain = weight[current] - total[current] * degree[v] / doubleWeight;
+					for(int i = 1 ; i < seenCount ; ++i) {
+						int c = seen[i];
+						double gain = weight[c] - total[c] * degree[v] / doubleWeight;
+						if(gain > bestGain || (gain == bestGain && best != current && c < best)) {
+							best = c;
+							bestGain = gain;
+						}
+					}
+					total[best] += degree[v];
+					if(best != current) {
+						community[v] = best;
+						moved = true;
+					}
+				}
+				Arrays.fill(mark, 0);
+			}
+		}
+
+		int[] renumber = new int[n];
+		Arrays.fill(renumber, -1);
+		int communities = 0;
+		for(int v = 0 ; v < n ; ++v) {
+			if(renumber[community[v]] < 0)
+				renumber[community[v]] = communities++;
+			community[v] = renumber[community[v]];
+		}
+		return community;
+	}
+}
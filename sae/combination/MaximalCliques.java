@@ -63,7 +63,9 @@ public class MaximalCliques implements ICombination {
 	        List<Integer> potential_clique = new ArrayList<Integer>();
 	        List<Integer> candidates = new ArrayList<Integer>();
 	        List<Integer> already_found = new ArrayList<Integer>();
-	        candidates.addAll(graph.getNodesIDs());
+	        for (int i = 0; i < graph.getNodesQuantity(); i++) {
+	            candidates.add(graph.nodeAt(i));
+	        }
 	        findCliques(potential_clique, candidates, already_found);
 	        return cliques;
 	    }
@@ -110,7 +112,7 @@ public class MaximalCliques implements ICombination {
 	                // create new_candidates by removing nodes in candidates not
 	                // connected to candidate node
 	                for (Integer new_candidate : candidates) {
-	                    if (graph.getEdge(candidate, new_candidate) != null) {
+	                    if (graph.isAdjacent(candidate, new_candidate)) {
 	                        new_candidates.add(new_candidate);
 	                    } // of if
 	                } // of for
@@ -118,7 +120,7 @@ public class MaximalCliques implements ICombination {
 	                // create new_already_found by removing nodes in already_found
 	                // not connected to candidate node
 	                for (Integer new_found : already_found) {
-	                    if (graph.getEdge(candidate, new_found) != null) {
+	                    if (graph.isAdjacent(candidate, new_found)) {
 	                        new_already_found.add(new_found);
 	                    } // of if
 	                } // of for
@@ -150,7 +152,7 @@ public class MaximalCliques implements ICombination {
 	        for (Integer found : already_found) {
 	            edgecounter = 0;
 	            for (Integer candidate : candidates) {
-	                if (graph.getEdge(found, candidate) != null) {
+	                if (graph.isAdjacent(found, candidate)) {
 	                    edgecounter++;
 	                } // of if
 	            } // of for
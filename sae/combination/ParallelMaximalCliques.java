@@ -0,0 +1,84 @@
+package  moa.classifiers.sae.combination;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveAction;
+
+import moa.classifiers.sae.Graph;
+import moa.classifiers.sae.Workers;
+
+/**
+ * Same maximal cliques as MaximalCliques, enumerated in parallel (see Workers).
+ *
+ * Vertices are sorted in degeneracy order (repeatedly taking the vertex with fewest
+ * neighbors left). The i-th vertex reports the maximal cliques that contain it and none of
+ * the previous vertices, i.e. its candidates are its later neighbors, which are at most the
+ * degeneracy of the network. These top level branches are independent, each one is a
+ * fork-join task adding cliques to a concurrent collector. Cliques are sorted afterwards in
+ * canonical order (ascending IDs), thus the output does not depend on scheduling and it is
+ * the same as the output of the other PivotBronKerbosch combinations.
+ */
+public class ParallelMaximalCliques implements ICombination {
+	/* Smaller networks are enumerated on the calling thread */
+	private static final int PARALLEL_THRESHOLD = 32;
+
+	@Override
+	public Collection<Set<Integer>> combine(Graph<Integer, Long> network) {
+		final PivotBronKerbosch graph = new PivotBronKerbosch(network);
+		final int[] order = graph.degeneracyOrder();
+		if(graph.size() < PARALLEL_THRESHOLD) {
+			List<int[]> cliques = new ArrayList<int[]>();
+			BitSet previous = new BitSet(graph.size());
+			for(int v : order) {
+				graph.cliquesOf(v, previous, cliques);
+				previous.set(v);
+			}
+			return PivotBronKerbosch.toSets(cliques);
+		}
+
+		final ConcurrentLinkedQueue<int[]> collector = new ConcurrentLinkedQueue<int[]>();
+		Workers.pool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				List<RecursiveAction> branches = new ArrayList<RecursiveAction>(order.length);
+				for(int i = 0 ; i < order.length ; ++i)
+					branches.add(new Branch(graph, order, i, collector));
+				invokeAll(branches);
+			}
+		});
+		return PivotBronKerbosch.toSets(new ArrayList<int[]>(collector));
+	}
+
+	/**
+	 * Maximal cliques of order[position] without vertices that come before it in order. */
+	private static class Branch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final PivotBronKerbosch graph;
+		private final int[] order;
+		private final int position;
+		private final ConcurrentLinkedQueue<int[]> collector;
+
+		Branch(PivotBronKerbosch graph, int[] order, int position, ConcurrentLinkedQueue<int[]> collector) {
+			this.graph = graph;
+			this.order = order;
+			this.position = position;
+			this.collector = collector;
+		}
+
+		@Override
+		protected void compute() {
+			BitSet previous = new BitSet(graph.size());
+			for(int i = 0 ; i < position ; ++i)
+				previous.set(order[i]);
+			List<int[]> cliques = new ArrayList<int[]>();
+			graph.cliquesOf(order[position], previous, cliques);
+			collector.addAll(cliques);
+		}
+	}
+}
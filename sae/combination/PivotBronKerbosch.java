@@ -0,0 +1,197 @@
+package  moa.classifiers.sae.combination;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import moa.classifiers.sae.Graph;
+
+/**
+ * Bron-Kerbosch with pivoting (Tomita et al.) over a bit set adjacency matrix of a snapshot
+ * of the network. Vertices are indexed by ascending ID, cliques are reported as sorted arrays
+ * of IDs. It enumerates the maximal cliques that contain a given vertex, the caller decides
+ * which vertices (and in which order) are enumerated, see IncrementalMaximalCliques. */
+class PivotBronKerbosch {
+	/* Vertices IDs (ascending), vertex i of the matrix is ids[i] */
+	final int[] ids;
+	/* Neighbors IDs (ascending) of every vertex */
+	final int[][] neighbors;
+	final BitSet[] adjacency;
+	private final HashMap<Integer, Integer> index;
+
+	/* Sorts cliques by their (sorted) IDs, shorter first when one is a prefix of the other */
+	static final Comparator<int[]> CANONICAL = new Comparator<int[]>() {
+		@Override
+		public int compare(int[] a, int[] b) {
+			for(int i = 0 ; i < a.length && i < b.length ; ++i)
+				if(a[i] != b[i])
+					return a[i] < b[i] ? -1 : 1;
+			return a.length - b.length;
+		}
+	};
+
+	PivotBronKerbosch(Graph<Integer, Long> network) {
+		int n = (int) network.getNodesQuantity();
+		ids = new int[n];
+		for(int i = 0 ; i < n ; ++i)
+			ids[i] = network.nodeAt(i);
+		Arrays.sort(ids);
+		index = new HashMap<Integer, Integer>(n * 2);
+		for(int i = 0 ; i < n ; ++i)
+			index.put(ids[i], i);
+		neighbors = new int[n][];
+		adjacency = new BitSet[n];
+		for(int i = 0 ; i < n ; ++i) {
+			int degree = network.degree(ids[i]);
+			neighbors[i] = new int[degree];
+			adjacency[i] = new BitSet(n);
+			for(int j = 0 ; j < degree ; ++j) {
+				neighbors[i][j] = network.neighborAt(ids[i], j);
+				adjacency[i].set(index.get(neighbors[i][j]));
+			}
+			Arrays.sort(neighbors[i]);
+		}
+	}
+
+	int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Report every maximal clique that contains vertex v and no vertex of excluded.
+	 * @param v matrix index
+	 * @param excluded vertices (matrix indexes) whose cliques were already reported
+	 * @param cliques where cliques are added */
+	void cliquesOf(int v, BitSet excluded, List<int[]> cliques) {
+		cliquesOf(v, excluded, cliques, Long.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Same as cliquesOf(v, excluded, cliques), but it gives up as soon as the deadline is 
+	 * reached or there are more than maxCliques cliques (see BoundedMaximalCliques).
+	 * @param deadline System.nanoTime() limit (Long.MAX_VALUE = none)
+	 * @param maxCliques
+	 * @return false if it gave up (some cliques may be missing) */
+	boolean cliquesOf(int v, BitSet excluded, List<int[]> cliques, long deadline, int maxCliques) {
+		BitSet candidates = (BitSet) adjacency[v].clone();
+		candidates.andNot(excluded);
+		BitSet alreadyFound = (BitSet) adjacency[v].clone();
+		alreadyFound.and(excluded);
+		int[] clique = new int[ids.length];
+		clique[0] = v;
+		return expand(clique, 1, candidates, alreadyFound, cliques, deadline, maxCliques);
+	}
+
+	private boolean expand(int[] clique, int size, BitSet candidates, BitSet alreadyFound, List<int[]> cliques, 
+			long deadline, int maxCliques) {
+		if(candidates.isEmpty()) {
+			if(alreadyFound.isEmpty())
+				cliques.add(toIDs(clique, size));
+			return cliques.size() <= maxCliques;
+		}
+		if(deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0)
+			return false;
+		/* Pivot: the vertex adjacent to most candidates, they need not be branched on */
+		int pivot = -1, most = -1;
+		for(int u = candidates.nextSetBit(0) ; u >= 0 ; u = candidates.nextSetBit(u + 1)) {
+			int adjacent = adjacentCandidates(u, candidates);
+			if(adjacent > most) {
+				most = adjacent;
+				pivot = u;
+			}
+		}
+		for(int u = alreadyFound.nextSetBit(0) ; u >= 0 ; u = alreadyFound.nextSetBit(u + 1)) {
+			int adjacent = adjacentCandidates(u, candidates);
+			if(adjacent > most) {
+				most = adjacent;
+				pivot = u;
+			}
+		}
+		BitSet branches = (BitSet) candidates.clone();
+		branches.andNot(adjacency[pivot]);
+		for(int u = branches.nextSetBit(0) ; u >= 0 ; u = branches.nextSetBit(u + 1)) {
+			BitSet newCandidates = (BitSet) candidates.clone();
+			newCandidates.and(adjacency[u]);
+			BitSet newAlreadyFound = (BitSet) alreadyFound.clone();
+			newAlreadyFound.and(adjacency[u]);
+			clique[size] = u;
+			if(!expand(clique, size + 1, newCandidates, newAlreadyFound, cliques, deadline, maxCliques))
+				return false;
+			candidates.clear(u);
+			alreadyFound.set(u);
+		}
+		return true;
+	}
+
+	/**
+	 * @return matrix indexes of the vertices in degeneracy order (ties broken by index) */
+	int[] degeneracyOrder() {
+		int n = size();
+		int[] degree = new int[n];
+		int maxDegree = 0;
+		for(int v = 0 ; v < n ; ++v) {
+			degree[v] = adjacency[v].cardinality();
+			maxDegree = Math.max(maxDegree, degree[v]);
+		}
+		/* Bucket queue: vertices (not yet ordered) by current degree */
+		BitSet[] buckets = new BitSet[maxDegree + 1];
+		for(int d = 0 ; d <= maxDegree ; ++d)
+			buckets[d] = new BitSet(n);
+		for(int v = 0 ; v < n ; ++v)
+			buckets[degree[v]].set(v);
+		BitSet ordered = new BitSet(n);
+		int[] order = new int[n];
+		int d = 0;
+		for(int i = 0 ; i < n ; ++i) {
+			d = Math.max(0, d - 1);
+			while(buckets[d].isEmpty())
+				++d;
+			int v = buckets[d].nextSetBit(0);
+			buckets[d].clear(v);
+			ordered.set(v);
+			order[i] = v;
+			for(int u = adjacency[v].nextSetBit(0) ; u >= 0 ; u = adjacency[v].nextSetBit(u + 1))
+				if(!ordered.get(u)) {
+					buckets[degree[u]].clear(u);
+					buckets[--degree[u]].set(u);
+				}
+		}
+		return order;
+	}
+
+	private int adjacentCandidates(int u, BitSet candidates) {
+		BitSet common = (BitSet) candidates.clone();
+		common.and(adjacency[u]);
+		return common.cardinality();
+	}
+
+	private int[] toIDs(int[] clique, int size) {
+		int[] c = new int[size];
+		for(int i = 0 ; i < size ; ++i)
+			c[i] = ids[clique[i]];
+		Arrays.sort(c);
+		return c;
+	}
+
+	/**
+	 * @param cliques sorted arrays of IDs
+	 * @return cliques in canonical order, as sets (see ICombination) */
+	static Collection<Set<Integer>> toSets(List<int[]> cliques) {
+		Collections.sort(cliques, CANONICAL);
+		Collection<Set<Integer>> sets = new ArrayList<Set<Integer>>(cliques.size());
+		for(int[] clique : cliques) {
+			Set<Integer> set = new HashSet<Integer>(clique.length * 2);
+			for(int ID : clique)
+				set.add(ID);
+			sets.add(set);
+		}
+		return sets;
+	}
+}
@@ -0,0 +1,76 @@
+package  moa.classifiers.sae.combination;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import moa.classifiers.sae.Graph;
+
+/**
+ * Weighted adjacency lists of a snapshot of the network (edge weights are the connections
+ * Sc, see Connections.update). Vertices are indexed by ascending ID, neighbors are matrix
+ * indexes in ascending order. Used by the community detection combinations. */
+class WeightedAdjacency {
+	/* Vertices IDs (ascending), vertex i is ids[i] */
+	final int[] ids;
+	final int[][] neighbors;
+	final double[][] weights;
+
+	WeightedAdjacency(Graph<Integer, Long> network) {
+		int n = (int) network.getNodesQuantity();
+		ids = new int[n];
+		for(int i = 0 ; i < n ; ++i)
+			ids[i] = network.nodeAt(i);
+		Arrays.sort(ids);
+		HashMap<Integer, Integer> index = new HashMap<Integer, Integer>(n * 2);
+		for(int i = 0 ; i < n ; ++i)
+			index.put(ids[i], i);
+		neighbors = new int[n][];
+		weights = new double[n][];
+		for(int i = 0 ; i < n ; ++i) {
+			int degree = network.degree(ids[i]);
+			long[] sorted = new long[degree];
+			double[] w = new double[degree];
+			for(int j = 0 ; j < degree ; ++j) {
+				/* Sort neighbors by index, keeping track of their weights */
+				sorted[j] = ((long) index.get(network.neighborAt(ids[i], j)) << 32) | j;
+				w[j] = network.weightAt(ids[i], j);
+			}
+			Arrays.sort(sorted);
+			neighbors[i] = new int[degree];
+			weights[i] = new double[degree];
+			for(int j = 0 ; j < degree ; ++j) {
+				neighbors[i][j] = (int) (sorted[j] >>> 32);
+				weights[i][j] = w[(int) (sorted[j] & 0xFFFFFFFFL)];
+			}
+		}
+	}
+
+	int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @param community community of every vertex (any int)
+	 * @return IDs of the vertices of every community (ascending IDs) */
+	List<int[]> groups(int[] community) {
+		HashMap<Integer, List<Integer>> members = new HashMap<Integer, List<Integer>>();
+		for(int v = 0 ; v < ids.length ; ++v) {
+			List<Integer> m = members.get(community[v]);
+			if(m == null) {
+				m = new ArrayList<Integer>();
+				members.put(community[v], m);
+			}
+			m.add(ids[v]);
+		}
+		List<int[]> groups = new ArrayList<int[]>(members.size());
+		for(List<Integer> m : members.values()) {
+			int[] group = new int[m.size()];
+			for(int i = 0 ; i < group.length ; ++i)
+				group[i] = m.get(i);
+			groups.add(group);
+		}
+		return groups;
+	}
+}
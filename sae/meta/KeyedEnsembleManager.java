@@ -0,0 +1,398 @@
+package moa.classifiers.sae.meta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.Classifier;
+import moa.classifiers.sae.Workers;
+import moa.core.Measurement;
+
+/**
+ * Keeps one model per key (e.g. per tenant or per sensor) in a single JVM. Every model is
+ * a copy of the same prototype (e.g. SAE2 or SFNClassifier with the desired options).
+ *
+ * Training instances are queued per key and consumed by a bounded pool of worker threads
+ * shared by every key (see Workers), so there is no thread per model. Instances of the
+ * same key are always used in the order they were submitted, and predictions of a key
+ * are made after every instance submitted before them was used for training. The
+ * instances are queued as they are, thus they must not be reused by the caller.
+ *
+ * Models are evicted to a file once there are too many in memory (least recently used
+ * first) or when they are idle (see evictIdle), and loaded back as soon as their key is
+ * used again. SAE2 models are written as NetworkCheckpoints, any other model is written
+ * using Java serialization. Models that cannot be written stay in memory. SAE2 models
+ * never write network, measurements, trace or checkpoint files nor serve metrics (see
+ * keyedPrototype), since every model would use the same files and port.
+ *
+ * @param <K> key type (must implement hashCode and equals) */
+public class KeyedEnsembleManager<K> {
+	/* Maximum number of instances a worker trains on before giving other keys a turn */
+	private static final int DRAIN_BATCH = 256;
+
+	/* Every model is a copy of this one */
+	protected final Classifier prototype;
+	/* Directory where evicted models are written */
+	protected final File evictionDirectory;
+	/* Maximum number of models in memory at once */
+	protected final int maxResidentModels;
+	/* Pool of worker threads shared by every key */
+	protected final ExecutorService pool;
+
+	protected final ConcurrentHashMap<K, Slot> slots = new ConcurrentHashMap<K, Slot>();
+	/* Models in memory */
+	protected final AtomicInteger residentModels = new AtomicInteger();
+	/* Eviction file name sequence generator */
+	protected final AtomicLong nextFileID = new AtomicLong();
+	/* Only one thread evicts least recently used models at a time */
+	protected final AtomicBoolean evicting = new AtomicBoolean(false);
+
+	/**
+	 * Model of one key along with its queue of training instances and its metrics.
+	 * The model is only used (or evicted) while holding the slot lock. */
+	protected class Slot {
+		/* null if evicted (or not created yet) */
+		protected Classifier model = null;
+		/* File where the model was evicted to (null if never evicted) */
+		protected File evictedTo = null;
+		protected final ConcurrentLinkedQueue<Instance> queue = new ConcurrentLinkedQueue<Instance>();
+		/* Whether a worker is (or will be) draining the queue */
+		protected final AtomicBoolean scheduled = new AtomicBoolean(false);
+		protected volatile long lastUsed = System.currentTimeMillis();
+		protected final long createdOn = System.currentTimeMillis();
+
+		/* Metrics (updated while holding the slot lock) */
+		protected long trained, predicted, busyNanos, loads, evictions;
+	}
+
+	/**
+	 * Create a manager that uses the shared worker pool (see Workers).
+	 * @param prototype model copied for every new key. It is prepared for use if needed.
+	 * @param evictionDirectory where evicted models are written (created if needed)
+	 * @param maxResidentModels maximum number of models in memory at once */
+	public KeyedEnsembleManager(Classifier prototype, File evictionDirectory, int maxResidentModels) {
+		this(prototype, evictionDirectory, maxResidentModels, Workers.pool());
+	}
+
+	/**
+	 * @param prototype model copied for every new key
+	 * @param evictionDirectory where evicted models are written (created if needed)
+	 * @param maxResidentModels maximum number of models in memory at once
+	 * @param pool worker threads used to train the models */
+	public KeyedEnsembleManager(Classifier prototype, File evictionDirectory, int maxResidentModels,
+			ExecutorService pool) {
+		this.prototype = keyedPrototype(prototype);
+		this.evictionDirectory = evictionDirectory;
+		this.maxResidentModels = Math.max(1, maxResidentModels);
+		this.pool = pool;
+		if(!evictionDirectory.isDirectory() && !evictionDirectory.mkdirs())
+			System.out.println("Not possible to create eviction directory " + evictionDirectory + "\n");
+	}
+
+	/**
+	 * Queue an instance to train the model of a key. It returns right away, the model is
+	 * trained later by a worker thread.
+	 * @param key
+	 * @param instance */
+	public void train(K key, Instance instance) {
+		Slot slot = slot(key);
+		slot.queue.add(instance);
+		schedule(slot);
+	}
+
+	/**
+	 * Predict an instance using the model of a key. Instances queued for this key are used
+	 * for training first (by the calling thread).
+	 * @param key
+	 * @param instance
+	 * @return array where the position with the highest value indicates the predicted class */
+	public double[] predict(K key, Instance instance) {
+		Slot slot = slot(key);
+		double[] votes;
+		synchronized(slot) {
+			long start = System.nanoTime();
+			Classifier model = resident(slot);
+			drain(slot, model, Integer.MAX_VALUE);
+			votes = model.getVotesForInstance(instance);
+			++slot.predicted;
+			slot.busyNanos += System.nanoTime() - start;
+		}
+		evictOverflow();
+		return votes;
+	}
+
+	/**
+	 * Train every model on all instances queued so far (using the calling thread). */
+	public void flush() {
+		for(Slot slot : slots.values()) {
+			synchronized(slot) {
+				if(!slot.queue.isEmpty()) {
+					long start = System.nanoTime();
+					drain(slot, resident(slot), Integer.MAX_VALUE);
+					slot.busyNanos += System.nanoTime() - start;
+				}
+			}
+			evictOverflow();
+		}
+	}
+
+	/**
+	 * Evict every model not used for a while and with no queued instances.
+	 * @param idleMillis
+	 * @return number of evicted models */
+	public int evictIdle(long idleMillis) {
+		long now = System.currentTimeMillis();
+		int evicted = 0;
+		for(Slot slot : slots.values())
+			if(now - slot.lastUsed >= idleMillis && evict(slot))
+				++evicted;
+		return evicted;
+	}
+
+	/**
+	 * Remove a key, along with its model, queued instances and eviction file. */
+	public void remove(K key) {
+		Slot slot = slots.remove(key);
+		if(slot != null) {
+			synchronized(slot) {
+				slot.queue.clear();
+				if(slot.model != null) {
+					if(slot.model instanceof SAE2)
+						((SAE2) slot.model).close();
+					slot.model = null;
+					residentModels.decrementAndGet();
+				}
+				if(slot.evictedTo != null)
+					slot.evictedTo.delete();
+			}
+		}
+	}
+
+	/**
+	 * Throughput metrics of a key. Instances per second are measured over the time spent
+	 * training and predicting (busy) and over the time since the key was first seen (wall).
+	 * @param key
+	 * @return measurements (null if the key was never seen) */
+	public Measurement[] getKeyMeasurements(K key) {
+		Slot slot = slots.get(key);
+		if(slot == null)
+			return null;
+		synchronized(slot) {
+			long instances = slot.trained + slot.predicted;
+			double busySeconds = slot.busyNanos / 1e9;
+			double wallSeconds = (System.currentTimeMillis() - slot.createdOn) / 1000.0;
+			return new Measurement[] {
+				new Measurement("trained instances", slot.trained),
+				new Measurement("predicted instances", slot.predicted),
+				new Measurement("queued instances", slot.queue.size()),
+				new Measurement("instances per busy second", busySeconds > 0 ? instances / busySeconds : 0.0),
+				new Measurement("instances per wall second", wallSeconds > 0 ? instances / wallSeconds : 0.0),
+				new Measurement("loads", slot.loads),
+				new Measurement("evictions", slot.evictions),
+				new Measurement("resident", slot.model != null ? 1 : 0)
+			};
+		}
+	}
+
+	/* Accessors */
+	public Set<K> getKeys() {
+		return Collections.unmodifiableSet(slots.keySet());
+	}
+	public int getResidentModels() {
+		return residentModels.get();
+	}
+
+	/**
+	 * Copy of the prototype whose copies can live side by side: SAE2 options that make 
+	 * every model use the same files or port are cleared. The prototype is not changed. */
+	protected static Classifier keyedPrototype(Classifier prototype) {
+		if(!(prototype instanceof SAE2))
+			return prototype;
+		SAE2 keyed = (SAE2) prototype.copy();
+		keyed.doNotWriteNetworkOption.set();
+		keyed.doNotWriteMeasurementsOption.set();
+		keyed.metricsPortOption.setValue(0);
+		keyed.traceFileOption.setValue("");
+		keyed.checkpointFileOption.setValue("");
+		return keyed;
+	}
+
+	protected Slot slot(K key) {
+		Slot slot = slots.get(key);
+		if(slot == null) {
+			Slot created = new Slot();
+			slot = slots.putIfAbsent(key, created);
+			if(slot == null)
+				slot = created;
+		}
+		slot.lastUsed = System.currentTimeMillis();
+		return slot;
+	}
+
+	/**
+	 * Make sure a worker will drain the queue of a slot. */
+	protected void schedule(final Slot slot) {
+		if(!slot.scheduled.compareAndSet(false, true))
+			return;
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					synchronized(slot) {
+						long start = System.nanoTime();
+						drain(slot, resident(slot), DRAIN_BATCH);
+						slot.busyNanos += System.nanoTime() - start;
+					}
+				} catch (RuntimeException e) {
+					System.out.println("Not possible to train keyed model " + e.getMessage() + "\n");
+					e.printStackTrace();
+				} finally {
+					slot.scheduled.set(false);
+				}
+				/* Instances queued meanwhile (or left over by the batch limit) need another turn */
+				if(!slot.queue.isEmpty())
+					schedule(slot);
+				evictOverflow();
+			}
+		});
+	}
+
+	/* Must hold the slot lock */
+	protected void drain(Slot slot, Classifier model, int max) {
+		Instance instance;
+		for(int i = 0 ; i < max && (instance = slot.queue.poll()) != null ; ++i) {
+			model.trainOnInstance(instance);
+			++slot.trained;
+		}
+	}
+
+	/**
+	 * Model of a slot, created or loaded back from its eviction file if needed. SAE2 models
+	 * are restored into the network built by prepareForUse (see SAE2.restoreCheckpoint).
+	 * Must hold the slot lock. */
+	protected Classifier resident(Slot slot) {
+		if(slot.model != null)
+			return slot.model;
+		Classifier model = prototype.copy();
+		model.prepareForUse();
+		if(slot.evictedTo != null) {
+			try {
+				model = load(model, slot.evictedTo);
+				++slot.loads;
+			} catch (IOException e) {
+				System.out.println("Not possible to load keyed model from " + slot.evictedTo +
+						", starting from scratch " + e.getMessage() + "\n");
+				e.printStackTrace();
+			}
+		}
+		slot.model = model;
+		residentModels.incrementAndGet();
+		return model;
+	}
+
+	/**
+	 * Write the model of a slot to its eviction file and release it. Nothing happens if
+	 * the slot has instances to train on or if the model cannot be written.
+	 * @return whether the model was evicted */
+	protected boolean evict(Slot slot) {
+		synchronized(slot) {
+			if(slot.model == null || !slot.queue.isEmpty() || slot.scheduled.get())
+				return false;
+			if(slot.evictedTo == null)
+				slot.evictedTo = new File(evictionDirectory, "model-" + nextFileID.getAndIncrement() + ".bin");
+			try {
+				save(slot.model, slot.evictedTo);
+			} catch (IOException e) {
+				System.out.println("Not possible to evict keyed model to " + slot.evictedTo +
+						", keeping it in memory " + e.getMessage() + "\n");
+				e.printStackTrace();
+				return false;
+			}
+			if(slot.model instanceof SAE2)
+				((SAE2) slot.model).close();
+			slot.model = null;
+			++slot.evictions;
+			residentModels.decrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * If there are too many models in memory, evict the least recently used ones until
+	 * only 3/4 of maxResidentModels remain (so that evictions are not triggered by every
+	 * new key). */
+	protected void evictOverflow() {
+		if(residentModels.get() <= maxResidentModels || !evicting.compareAndSet(false, true))
+			return;
+		try {
+			List<Slot> candidates = new ArrayList<Slot>();
+			for(Slot slot : slots.values())
+				if(slot.model != null)
+					candidates.add(slot);
+			Collections.sort(candidates, new Comparator<Slot>() {
+				@Override
+				public int compare(Slot s1, Slot s2) {
+					return s1.lastUsed < s2.lastUsed ? -1 : (s1.lastUsed == s2.lastUsed ? 0 : 1);
+				}
+			});
+			int target = maxResidentModels * 3 / 4;
+			for(Slot slot : candidates) {
+				if(residentModels.get() <= target)
+					break;
+				evict(slot);
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	protected void save(Classifier model, File file) throws IOException {
+		if(model instanceof SAE2) {
+			((SAE2) model).saveCheckpoint(file);
+			return;
+		}
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeObject(model);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param fresh model just copied from the prototype
+	 * @param file
+	 * @return the model that was saved to file */
+	protected Classifier load(Classifier fresh, File file) throws IOException {
+		if(fresh instanceof SAE2) {
+			((SAE2) fresh).restoreCheckpoint(file);
+			return fresh;
+		}
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return (Classifier) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			in.close();
+		}
+	}
+}
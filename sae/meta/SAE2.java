@@ -1,6 +1,12 @@
 package moa.classifiers.sae.meta;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.github.javacliparser.*;
 
@@ -9,7 +15,13 @@ import weka.core.Utils;
 import moa.classifiers.AbstractClassifier;
 import moa.classifiers.Classifier;
 import moa.classifiers.MultiClassClassifier;
+import moa.classifiers.sae.LatencyController;
 import moa.classifiers.sae.Network;
+import moa.classifiers.sae.NetworkCheckpoint;
+import moa.classifiers.sae.NetworkMetricsServer;
+import moa.classifiers.sae.OutputPajekDelta;
+import moa.classifiers.sae.TraceRecorder;
+import moa.classifiers.sae.remote.RemoteExperts;
 import moa.core.Measurement;
 import moa.options.ClassOption;
 
@@ -38,8 +50,18 @@ public class SAE2 extends AbstractClassifier implements MultiClassClassifier {
 	public MultiChoiceOption combinationMethodOption = new MultiChoiceOption(
             "combinationMethod", 'v', "Which algorithm should be used to group classifiers.", 
             new String[]{"moa.classifiers.sae.combination.MaximalCliques", "moa.classifiers.sae.combination.WeaklyConnectedComponents", 
-            		"moa.classifiers.sae.combination.FreeCombination"}, new String[]{"MaximalCliques",
-                    "WeaklyConnectedComponents", "FreeCombination"}, 0);
+            		"moa.classifiers.sae.combination.FreeCombination", "moa.classifiers.sae.combination.IncrementalMaximalCliques", 
+            		"moa.classifiers.sae.combination.ParallelMaximalCliques", "moa.classifiers.sae.combination.BoundedMaximalCliques", 
+            		"moa.classifiers.sae.combination.LabelPropagation", "moa.classifiers.sae.combination.Louvain"}, 
+            new String[]{"MaximalCliques", "WeaklyConnectedComponents", "FreeCombination", "IncrementalMaximalCliques", 
+            		"ParallelMaximalCliques", "BoundedMaximalCliques", 
+            		"LabelPropagation", "Louvain"}, 0);
+	public IntOption cliqueTimeBudgetOption = new IntOption("CliqueTimeBudget", 't', 
+		"Milliseconds BoundedMaximalCliques may spend enumerating cliques before using a greedy clique cover (0 = unlimited)", 
+		100, 0, Integer.MAX_VALUE);
+	public IntOption maxSubnetworksOption = new IntOption("MaxSubnetworks", 'K', 
+		"Maximum number of subnetworks (cliques or groups of the greedy cover) of BoundedMaximalCliques", 
+		100, 1, Integer.MAX_VALUE);
 	public MultiChoiceOption votingMethodOption = new MultiChoiceOption(
             "votingMethod", 'a', "Which algorithm should be used for prediction and tie break.", 
             new String[]{"moa.classifiers.sae.vote.MajorityVote", "moa.classifiers.sae.vote.MajorityVoteWeightedBySubnetworkSize", 
@@ -53,12 +75,74 @@ public class SAE2 extends AbstractClassifier implements MultiClassClassifier {
 	"Activate/Deactivate network measurements output to file. ");
 	public StringOption pajekFileOption = new StringOption("pajekFile", 'p',
 	"Network pajek project file name.", "sae-net");
+	public IntOption pajekDeltaKeyframesOption = new IntOption("PajekDeltaKeyframes", 'd', 
+		"Write the network history as compressed deltas (.pajd, see OutputPajekDelta) with the whole network every this many periods (0 = pajek project file)", 
+		0, 0, Integer.MAX_VALUE);
 	public StringOption measurementsFileOption = new StringOption("measurementsFile", 'z',
 	"Network measurements file name.", "sae-measurements");
+	public IntOption topologyLagOption = new IntOption("TopologyLag", 'g', 
+		"Instances predicted with the previous subnetworks while the new ones are generated in background (0 = generate them synchronously)", 
+		0, 0, Integer.MAX_VALUE);
+	public StringOption checkpointFileOption = new StringOption("CheckpointFile", 'k', 
+	"File where the network is checkpointed (in background) at the end of every period. Empty = no checkpoints.", "");
+	public StringOption restoreFileOption = new StringOption("RestoreFile", 'u', 
+	"Checkpoint file used to restore the network whenever learning is reset. Empty = start from scratch.", "");
+	public IntOption scoringViewRefreshOption = new IntOption("ScoringViewRefresh", 's', 
+		"Instances between snapshots of the network used by score() from other threads (0 = disabled)", 
+		0, 0, Integer.MAX_VALUE);
+	public IntOption microBatchSizeOption = new IntOption("MicroBatchSize", 'b', 
+		"Instances tested before experts are trained on all of them at once, in parallel (1 = train on every instance)", 
+		1, 1, Integer.MAX_VALUE);
+	public FlagOption singlePassTrainingOption = new FlagOption("SinglePassTraining", 'f', 
+		"Predict, check accuracy, update connections and train every expert in a single pass over them (ignored if MicroBatchSize > 1)");
+	public IntOption remoteWorkersOption = new IntOption("RemoteWorkers", 'j', 
+		"Number of local worker processes where expert learners live (0 = every learner lives in this process)", 
+		0, 0, Integer.MAX_VALUE);
+	public IntOption metricsPortOption = new IntOption("MetricsPort", 'h', 
+		"Port of the HTTP endpoint (/metrics, Prometheus text format) serving the measurements of the last period (0 = no endpoint)", 
+		0, 0, 65535);
+	public StringOption metricsAddressOption = new StringOption("MetricsAddress", 'H', 
+		"Address the HTTP endpoint binds to (e.g. 0.0.0.0 for every interface). Empty = loopback only.", "");
+	public IntOption latencyTargetOption = new IntOption("LatencyTarget", 'L', 
+		"Target 99th percentile latency per instance in microseconds, the expert limit shrinks (or grows up to MaxExperts) at every update to meet it (0 = MaxExperts is fixed)", 
+		0, 0, Integer.MAX_VALUE);
+	public IntOption latencyWindowOption = new IntOption("LatencyWindow", 'W', 
+		"Number of latest instances whose latency is used by LatencyTarget", 
+		1000, 1, Integer.MAX_VALUE);
+	public IntOption freezeStablePeriodsOption = new IntOption("FreezeStablePeriods", 'F', 
+		"Experts whose accuracy changed at most FreezeTolerance for this many consecutive periods stop training until their accuracy drops (0 = never freeze)", 
+		0, 0, Integer.MAX_VALUE);
+	public FloatOption freezeToleranceOption = new FloatOption("FreezeTolerance", 'T', 
+		"Accuracy change between periods (and drop within a period) tolerated by frozen experts", 
+		0.01, 0.0, 1.0);
+	public FlagOption earlyPruningOption = new FlagOption("EarlyPruning", 'P', 
+		"Stop training experts (and the candidate) as soon as they are certain to be removed at the network update (below MinE or redundant), see EarlyPruningConfidence. Removals are decided at the update, as without EarlyPruning");
+	public FloatOption earlyPruningConfidenceOption = new FloatOption("EarlyPruningConfidence", 'C', 
+		"Error probability of the Hoeffding bounds used by EarlyPruning, an approximation that may stop training experts that would not be removed, thus removals may change (0 = worst case bounds, only experts certain to be removed stop training and removals are the same as without EarlyPruning)", 
+		0.0, 0.0, 1.0);
+	public FlagOption earlyPruningMutesOption = new FlagOption("EarlyPruningMutes", 'M', 
+		"Experts doomed by EarlyPruning stop predicting (and voting) too (only with EarlyPruningConfidence = 0)");
+	public FlagOption demandDrivenCandidatesOption = new FlagOption("DemandDrivenCandidates", 'D', 
+		"Spawn a candidate only if the network accuracy during the last period was below SpawnAccuracy or dropped more than SpawnAccuracyDrop");
+	public FloatOption spawnAccuracyOption = new FloatOption("SpawnAccuracy", 'A', 
+		"Network accuracy below which a candidate is spawned (see DemandDrivenCandidates)", 0.95, 0.0, 1.0);
+	public FloatOption spawnAccuracyDropOption = new FloatOption("SpawnAccuracyDrop", 'B', 
+		"Drop in network accuracy w.r.t. the previous period above which a candidate is spawned (see DemandDrivenCandidates)", 
+		0.01, 0.0, 1.0);
+	public StringOption traceFileOption = new StringOption("TraceFile", 'R', 
+	"File where the true class and every expert prediction of each instance are recorded for offline replay (see TraceReplay). Empty = no trace.", "");
+	public IntOption recycledLearnersOption = new IntOption("RecycledLearners", 'm', 
+		"Learners of removed experts kept (reset) to be reused by new experts, the base learner must reset completely (0 = no recycling)", 
+		0, 0, Integer.MAX_VALUE);
+	public FlagOption earlyExitVotingOption = new FlagOption("EarlyExitVoting", 'y', 
+	"Stop asking experts for predictions once the remaining votes cannot change the network decision. ");
+	public FlagOption incrementalCandidateTrainingOption = new FlagOption("IncrementalCandidateTraining", 'i', 
+	"Train the candidate on each incorrectly classified instance as it occurs instead of replaying them all at the network update. " + 
+	"This changes the candidate predictions during the period, thus its accuracy, its connections Sc and whether it is removed at the update.");
 
 	
-	/* The underlying network of experts. */
-	protected Network network;
+	/* The underlying network of experts. Volatile since score() may be called by other threads. */
+	protected volatile Network network;
 	/* Time representation. Increments after every TrainOninstanceImpl call */
 	protected long ticks;
 	/* Incorrectly classified instances by the network (last period). */
@@ -71,6 +155,10 @@ public class SAE2 extends AbstractClassifier implements MultiClassClassifier {
 	protected long periodLengthMeasurement;
 	/* Period identifier (sequential number) */
 	protected int periodIdentifier;
+	/* Class predicted by the network for the last instance used for training */
+	protected int lastPredictedClass = -1;
+	/* Last checkpoint being written in background (null if none) */
+	protected transient Future<Void> pendingCheckpoint;
 	
 	/**
 	 * Instantiate a new Network and initialize the time counter (ticks). 
@@ -79,28 +167,190 @@ public class SAE2 extends AbstractClassifier implements MultiClassClassifier {
 		ticks = 1;
 		periodLength = periodLengthOption.getValue();
 		periodIdentifier = 1;
+		createNetwork();
+		if(restoreFileOption.getValue().length() > 0) {
+			try {
+				restoreCheckpoint(new File(restoreFileOption.getValue()));
+			} catch (IOException e) {
+				System.out.println("Not possible to restore checkpoint " + restoreFileOption.getValue() + 
+						", starting from scratch " + e.getMessage() + "\n");
+				e.printStackTrace();
+			}
+		}
+		if(scoringViewRefreshOption.getValue() > 0)
+			network.publishScoringView(periodLength, ticks);
+	}
+	
+	protected void createNetwork() {
+		/* Worker processes of the previous network (if any) are no longer needed */
+		if(network != null)
+			network.close();
+		RemoteExperts remote = null;
+		if(remoteWorkersOption.getValue() > 0) {
+			try {
+				remote = new RemoteExperts(remoteWorkersOption.getValue());
+			} catch (IOException e) {
+				System.out.println("Not possible to start expert workers, experts will live in this process " + 
+						e.getMessage() + "\n");
+				e.printStackTrace();
+			}
+		}
 		network = new Network((Classifier) getPreparedClassOption
-				(baseLearnerOption), periodLength, doNotWriteNetworkOption.isSet(), 
+				(baseLearnerOption), periodLength, 
+				doNotWriteNetworkOption.isSet() || pajekDeltaKeyframesOption.getValue() > 0, 
 				doNotWriteMeasurementsOption.isSet(), pajekFileOption.getValue(), 
 				measurementsFileOption.getValue(), 
-				combinationMethodOption.getChosenLabel(), votingMethodOption.getChosenLabel(), this.classifierRandom);
+				combinationMethodOption.getChosenLabel(), votingMethodOption.getChosenLabel(), this.classifierRandom, 
+				remote);
+		if(!doNotWriteNetworkOption.isSet() && pajekDeltaKeyframesOption.getValue() > 0)
+			network.setOutputPajekDelta(new OutputPajekDelta(pajekFileOption.getValue(), 
+					Calendar.getInstance().getTime(), pajekDeltaKeyframesOption.getValue()));
+		if(metricsPortOption.getValue() > 0) {
+			try {
+				String address = metricsAddressOption.getValue();
+				network.setMetricsServer(address.length() > 0 ? 
+						new NetworkMetricsServer(InetAddress.getByName(address), metricsPortOption.getValue()) : 
+						new NetworkMetricsServer(metricsPortOption.getValue()));
+			} catch (IOException e) {
+				System.out.println("Not possible to start metrics endpoint on port " + metricsPortOption.getValue() + 
+						" " + e.getMessage() + "\n");
+				e.printStackTrace();
+			}
+		}
+		if(latencyTargetOption.getValue() > 0)
+			network.setLatencyController(new LatencyController(latencyTargetOption.getValue() * 1000L, 
+					latencyWindowOption.getValue()));
+		network.setFreezing(freezeStablePeriodsOption.getValue(), freezeToleranceOption.getValue());
+		network.setEarlyPruning(earlyPruningOption.isSet(), periodLength, minEOption.getValue(), 
+				scMaxOption.getValue(), earlyPruningConfidenceOption.getValue(), earlyPruningMutesOption.isSet());
+		network.setDemandDrivenCandidates(demandDrivenCandidatesOption.isSet(), spawnAccuracyOption.getValue(), 
+				spawnAccuracyDropOption.getValue());
+		if(traceFileOption.getValue().length() > 0) {
+			try {
+				network.setTraceRecorder(new TraceRecorder(new File(traceFileOption.getValue())));
+			} catch (IOException e) {
+				System.out.println("Not possible to create trace " + traceFileOption.getValue() + 
+						" " + e.getMessage() + "\n");
+				e.printStackTrace();
+			}
+		}
+		network.setLearnerRecycling(recycledLearnersOption.getValue());
+		network.setCombinationLimits(cliqueTimeBudgetOption.getValue(), maxSubnetworksOption.getValue());
+		network.setTopologyLag(topologyLagOption.getValue());
+		network.setScoringViewRefresh(scoringViewRefreshOption.getValue());
+		network.setEarlyExitVoting(earlyExitVotingOption.isSet());
+	}
+	
+	/**
+	 * Capture the current state (network and time counters) as a checkpoint, without 
+	 * changing it (an incomplete micro-batch is part of the snapshot, see MicroBatchSize). 
+	 * Nothing is written yet, the snapshot can be written later by any thread. */
+	public NetworkCheckpoint captureCheckpoint() throws IOException {
+		NetworkCheckpoint checkpoint = NetworkCheckpoint.capture(network);
+		checkpoint.setOwnerState(ticks, periodLength, periodIdentifier, periodCounter, 
+				periodLengthMeasurement, Ier, classifierRandom);
+		return checkpoint;
+	}
+	
+	public void saveCheckpoint(File file) throws IOException {
+		captureCheckpoint().write(file);
+	}
+	
+	/**
+	 * Replace the current state by the state saved in a checkpoint. 
+	 * @param file */
+	public void restoreCheckpoint(File file) throws IOException {
+		restoreCheckpoint(NetworkCheckpoint.read(file));
+	}
+	
+	/**
+	 * Replace the current state by the state in a checkpoint (e.g. captured from another 
+	 * SAE2 with the same combination and voting methods, see SAE2Sweep). The state is 
+	 * restored into the current network (a new one if it was closed), thus its output 
+	 * files, metrics endpoint and worker processes are kept. 
+	 * @param checkpoint */
+	public void restoreCheckpoint(NetworkCheckpoint checkpoint) throws IOException {
+		/* The network shares the random generator, thus it must use the restored one too. */
+		classifierRandom = checkpoint.getRandom();
+		periodLength = checkpoint.getPeriodLength();
+		if(network == null)
+			createNetwork();
+		else {
+			network.setRandom(classifierRandom);
+			network.setEarlyPruning(earlyPruningOption.isSet(), periodLength, minEOption.getValue(), 
+					scMaxOption.getValue(), earlyPruningConfidenceOption.getValue(), earlyPruningMutesOption.isSet());
+		}
+		checkpoint.restore(network);
+		ticks = checkpoint.getTicks();
+		periodIdentifier = checkpoint.getPeriodIdentifier();
+		periodCounter = checkpoint.getPeriodCounter();
+		periodLengthMeasurement = checkpoint.getPeriodLengthMeasurement();
+		Ier = checkpoint.getIer();
+		if(scoringViewRefreshOption.getValue() > 0)
+			network.publishScoringView(periodLength, ticks);
+	}
+	
+	/**
+	 * Write a checkpoint in background. If the previous one is still being written, 
+	 * wait for it first, so that checkpoints are written in order. */
+	protected void checkpointInBackground(File file) {
+		try {
+			if(pendingCheckpoint != null)
+				pendingCheckpoint.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.out.println("Not possible to write checkpoint " + file + " " + e.getMessage() + "\n");
+			e.printStackTrace();
+		}
+		try {
+			pendingCheckpoint = captureCheckpoint().writeInBackground(file);
+		} catch (IOException e) {
+			System.out.println("Not possible to capture checkpoint " + e.getMessage() + "\n");
+			e.printStackTrace();
+		}
 	}
 
 	public void trainOnInstanceImpl(Instance instance) {
-		/* Predict class value using current network structure */
-		int predictedClass = Utils.maxIndex(network.test(instance, periodLength, ticks));
+		boolean timed = network.isTimed();
+		long start = timed ? System.nanoTime() : 0;
+		/* Predict class value using current network structure. The single pass also 
+		 * updates accuracy counters, connections and trains the experts. */
+		boolean singlePass = singlePassTrainingOption.isSet() && microBatchSizeOption.getValue() == 1;
+		int predictedClass = Utils.maxIndex(singlePass ? 
+				network.tick(instance, periodLength, ticks, this.classifierRandom) : 
+				network.test(instance, periodLength, ticks));
+		lastPredictedClass = predictedClass;
+		network.recordTrace(instance, periodLength, ticks);
 		/* If correct prediction, then increment network accuracy counter. */
 		if(predictedClass == instance.classValue())
 			network.addCorrectlyClassified();
-		/* Else, save instance to be used to train a new expert */
+		/* Else, reinforce the candidate right away or save instance to be used to train it 
+		 * when the network is updated */
+		else if(incrementalCandidateTrainingOption.isSet())
+			network.reinforceCandidate(instance);
 		else
-			Ier.add(instance);
-		/* Update each expert accuracy counter w.r.t. to last instance. 
-		 * Does not call "test" again on each expert, it uses the attribute lastPredictedClass 
-		 * for the comparison. */
-		network.checkExpertsAccuracy(instance, periodLength);
-		network.updateConnections(instance);
-		network.train(instance, this.classifierRandom);
+			/* Copied, since callers may reuse instance objects (see PrequentialRunner) */
+			Ier.add(instance.copy());
+		if(microBatchSizeOption.getValue() > 1) {
+			/* Accuracy, connections and training are postponed until the micro-batch is 
+			 * complete. The last micro-batch of a period is shorter if needed, so that 
+			 * network updates still take place every periodLength instances. */
+			network.addToBlock(instance);
+			if(network.getBlockSize() == microBatchSizeOption.getValue() || ticks % periodLength == 0)
+				network.trainOnBlock(this.classifierRandom);
+		}
+		else if(!singlePass) {
+			/* Update each expert accuracy counter w.r.t. to last instance. 
+			 * Does not call "test" again on each expert, it uses the attribute lastPredictedClass 
+			 * for the comparison. */
+			network.checkExpertsAccuracy(instance, periodLength);
+			network.updateConnections(instance);
+			network.train(instance, this.classifierRandom);
+		}
+		network.refreshScoringView(periodLength, ticks);
+		if(timed)
+			network.addInstanceNanos(System.nanoTime() - start);
 		if(ticks % periodLength == 0) {
 			network.update(maxExpertsOption.getValue(), periodIdentifier, ticks, periodLength, 
 					scMinOption.getValue(), Ier, minEOption.getValue(),
@@ -113,10 +363,57 @@ public class SAE2 extends AbstractClassifier implements MultiClassClassifier {
 			++periodCounter;
 		}
 		++ticks;
+		/* Checkpoint right after the network update, so that a restored network resumes on the next instance */
+		if((ticks - 1) % periodLength == 0 && checkpointFileOption.getValue().length() > 0)
+			checkpointInBackground(new File(checkpointFileOption.getValue()));
+	}
+	
+	/**
+	 * Release resources held by the network (i.e. expert worker processes, see RemoteWorkers). 
+	 * Afterwards, the network is built again by resetLearning or restoreCheckpoint. */
+	public void close() {
+		if(network != null)
+			network.close();
+		network = null;
+	}
+	
+	/**
+	 * @return class predicted by the network for the last instance used for training, 
+	 * i.e. its prequential prediction (-1 if none) */
+	public int getLastPredictedClass() {
+		return lastPredictedClass;
+	}
+	
+	/**
+	 * @return time counter (ticks - 1 instances were used for training since the last reset) */
+	public long getTicks() {
+		return ticks;
+	}
+	
+	/**
+	 * @see Network#getStructureFingerprint() */
+	public String getStructureFingerprint() {
+		return ticks + "|" + Ier.size() + "|" + network.getStructureFingerprint();
 	}
 	
 	public double[] getVotesForInstance(Instance instance) {
-		return network.test(instance, periodLength, ticks);
+		if(latencyTargetOption.getValue() == 0)
+			return network.test(instance, periodLength, ticks);
+		long start = System.nanoTime();
+		double[] votes = network.test(instance, periodLength, ticks);
+		network.recordLatency(System.nanoTime() - start);
+		return votes;
+	}
+	
+	/**
+	 * Side-effect-free prediction, which may be called by any number of threads while 
+	 * another thread trains this classifier. It uses a snapshot of the network that is 
+	 * refreshed every ScoringViewRefresh instances and after every network update. 
+	 * Unlike getVotesForInstance, it does not change experts or tie counters. 
+	 * @param instance
+	 * @return array where the position with the highest value indicates the predicted class */
+	public double[] score(Instance instance) {
+		return network.score(instance);
 	}
 	@Override
 	public boolean isRandomizable() {
@@ -0,0 +1,249 @@
+package moa.classifiers.sae.meta;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.sae.NetworkCheckpoint;
+import moa.classifiers.sae.Workers;
+import moa.core.Example;
+import moa.streams.ExampleStream;
+
+/**
+ * Evaluates many SAE2 configurations (prequential accuracy) reading the stream only once.
+ *
+ * Configurations that only differ in MaxExperts, MinE, ScMin and ScMax behave exactly the
+ * same until the end of the first period, since these thresholds are only used when the
+ * network is updated (except MinE and ScMax with EarlyPruning). Such configurations form a group, which trains a single model.
+ * Right before the instance that updates the network, the group model is copied (see
+ * NetworkCheckpoint) to every configuration of the group, and each copy is updated with
+ * its own thresholds. Afterwards, copies whose networks ended up with the same structure
+ * (see Network.getStructureFingerprint) are in the same state, therefore they form a
+ * group again and share a single model until the next update.
+ *
+ * The stream is read in chunks, every group consumes a chunk in parallel (see Workers).
+ * Configurations should not write network or measurements files, since configurations
+ * in the same group would write to the same files.
+ */
+public class SAE2Sweep {
+	/* Instances read from the stream at once */
+	private static final int CHUNK_SIZE = 1000;
+
+	protected final ExampleStream<Example<Instance>> stream;
+	protected final List<SAE2> configurations;
+	/* Whether each configuration was prepared for the stream (i.e. it has a network) */
+	protected final boolean[] prepared;
+	/* Prequential results of each configuration */
+	protected final long[] seen, correct;
+	protected List<Group> groups = new ArrayList<Group>();
+
+	/* Throughput */
+	protected long instances;
+	protected long elapsedNanos;
+	protected long modelInstances;
+	protected long copies;
+
+	/**
+	 * Configurations sharing one model. The model is the SAE2 object of one of them. */
+	protected class Group {
+		protected final SAE2 model;
+		protected final List<Integer> members = new ArrayList<Integer>();
+		protected long modelInstances;
+
+		protected Group(SAE2 model) {
+			this.model = model;
+		}
+	}
+
+	/**
+	 * @param stream
+	 * @param configurations SAE2 objects with the options of each configuration */
+	public SAE2Sweep(ExampleStream<Example<Instance>> stream, List<SAE2> configurations) {
+		this.stream = stream;
+		this.configurations = configurations;
+		prepared = new boolean[configurations.size()];
+		seen = new long[configurations.size()];
+		correct = new long[configurations.size()];
+	}
+
+	/**
+	 * Feed the stream to every configuration.
+	 * @param maxInstances maximum number of instances read from the stream */
+	public void run(long maxInstances) {
+		long start = System.nanoTime();
+		LinkedHashMap<String, Group> byBehaviour = new LinkedHashMap<String, Group>();
+		for(int c = 0 ; c < configurations.size() ; ++c) {
+			String key = sharedBehaviourKey(configurations.get(c));
+			Group group = byBehaviour.get(key);
+			if(group == null) {
+				group = new Group(prepare(c));
+				byBehaviour.put(key, group);
+			}
+			group.members.add(c);
+		}
+		groups = new ArrayList<Group>(byBehaviour.values());
+
+		Instance[] chunk = new Instance[CHUNK_SIZE];
+		while(instances < maxInstances && stream.hasMoreInstances()) {
+			int n = 0;
+			while(n < CHUNK_SIZE && instances + n < maxInstances && stream.hasMoreInstances())
+				chunk[n++] = stream.nextInstance().getData();
+			groups = processChunk(chunk, n);
+			instances += n;
+		}
+		elapsedNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * @return accuracy of every configuration and throughput of the sweep */
+	public String getReport() {
+		StringBuilder str = new StringBuilder(200 * (configurations.size() + 1));
+		str.append("instances;accuracy;configuration\n");
+		for(int c = 0 ; c < configurations.size() ; ++c) {
+			str.append(seen[c]).append(";");
+			str.append(String.format("%.4f", seen[c] > 0 ? correct[c] / (double) seen[c] : 0.0)).append(";");
+			str.append(configurations.get(c).getCLICreationString(SAE2.class)).append("\n");
+		}
+		double seconds = elapsedNanos / 1e9;
+		str.append("\nconfigurations: ").append(configurations.size());
+		str.append("\ngroups (models in memory): ").append(groups.size());
+		str.append("\ninstances read: ").append(instances);
+		str.append("\nseconds: ").append(String.format("%.2f", seconds));
+		str.append("\ninstances per second: ").append(String.format("%.1f", seconds > 0 ? instances / seconds : 0.0));
+		str.append("\nmodel instances (trained): ").append(modelInstances);
+		str.append("\nconfiguration instances (evaluated): ").append(instances * configurations.size());
+		str.append("\nmodel copies: ").append(copies);
+		str.append("\n");
+		return str.toString();
+	}
+
+	protected List<Group> processChunk(final Instance[] chunk, final int n) {
+		List<Callable<List<Group>>> tasks = new ArrayList<Callable<List<Group>>>(groups.size());
+		for(final Group group : groups) {
+			tasks.add(new Callable<List<Group>>() {
+				@Override
+				public List<Group> call() throws IOException {
+					List<Group> result = new ArrayList<Group>();
+					process(group, chunk, 0, n, result);
+					return result;
+				}
+			});
+		}
+		List<Group> next = new ArrayList<Group>(groups.size());
+		try {
+			for(Future<List<Group>> f : Workers.pool().invokeAll(tasks))
+				next.addAll(f.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Not possible to run configurations on chunk", e.getCause());
+		}
+		for(Group group : next) {
+			modelInstances += group.modelInstances;
+			group.modelInstances = 0;
+		}
+		return next;
+	}
+
+	/**
+	 * Feed chunk[from, n) to a group. The groups left afterwards (more than one if the
+	 * group was split) are added to result. */
+	protected void process(Group group, Instance[] chunk, int from, int n, List<Group> result) throws IOException {
+		int periodLength = group.model.periodLengthOption.getValue();
+		for(int i = from ; i < n ; ++i) {
+			/* The next instance updates the network */
+			if(group.members.size() > 1 && group.model.getTicks() % periodLength == 0) {
+				for(Group split : split(group, chunk[i]))
+					process(split, chunk, i + 1, n, result);
+				return;
+			}
+			train(group.model, group.members, chunk[i]);
+			++group.modelInstances;
+		}
+		result.add(group);
+	}
+
+	/**
+	 * Copy the group model to every member, train (and update) each copy on the instance
+	 * and group them again by network structure. */
+	protected List<Group> split(Group group, Instance instance) throws IOException {
+		NetworkCheckpoint checkpoint = group.model.captureCheckpoint();
+		LinkedHashMap<String, Group> byStructure = new LinkedHashMap<String, Group>();
+		for(Integer c : group.members) {
+			SAE2 model = configurations.get(c);
+			if(model != group.model) {
+				prepare(c);
+				model.restoreCheckpoint(checkpoint);
+				++copies;
+			}
+			List<Integer> member = new ArrayList<Integer>(1);
+			member.add(c);
+			train(model, member, instance);
+			String fingerprint = model.getStructureFingerprint();
+			Group split = byStructure.get(fingerprint);
+			if(split == null) {
+				split = new Group(model);
+				byStructure.put(fingerprint, split);
+			}
+			else
+				/* Same state as the model of split, thus it is no longer needed */
+				model.close();
+			split.members.add(c);
+			++split.modelInstances;
+		}
+		return new ArrayList<Group>(byStructure.values());
+	}
+
+	protected void train(SAE2 model, List<Integer> members, Instance instance) {
+		model.trainOnInstance(instance);
+		boolean hit = model.getLastPredictedClass() == (int) instance.classValue();
+		for(Integer c : members) {
+			++seen[c];
+			if(hit)
+				++correct[c];
+		}
+	}
+
+	protected SAE2 prepare(int c) {
+		SAE2 model = configurations.get(c);
+		if(!prepared[c]) {
+			InstancesHeader header = stream.getHeader();
+			model.setModelContext(header);
+			model.prepareForUse();
+			prepared[c] = true;
+		}
+		return model;
+	}
+
+	/**
+	 * Configurations with the same key behave the same until the first network update.
+	 * @return options of the configuration, except those only used on network updates */
+	protected static String sharedBehaviourKey(SAE2 config) {
+		synchronized(config) {
+			int maxExperts = config.maxExpertsOption.getValue();
+			double minE = config.minEOption.getValue();
+			double scMin = config.scMinOption.getValue();
+			double scMax = config.scMaxOption.getValue();
+			config.maxExpertsOption.setValue(1);
+			config.scMinOption.setValue(1.0);
+			/* Early pruning uses MinE and ScMax during the period */
+			if(!config.earlyPruningOption.isSet()) {
+				config.minEOption.setValue(1.0);
+				config.scMaxOption.setValue(1.0);
+			}
+			String key = config.getCLICreationString(SAE2.class);
+			config.maxExpertsOption.setValue(maxExperts);
+			config.minEOption.setValue(minE);
+			config.scMinOption.setValue(scMin);
+			config.scMaxOption.setValue(scMax);
+			return key;
+		}
+	}
+}
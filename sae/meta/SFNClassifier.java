@@ -1,6 +1,7 @@
 package moa.classifiers.sae.meta;
 
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -8,6 +9,8 @@ import moa.classifiers.AbstractClassifier;
 import moa.classifiers.Classifier;
 import moa.classifiers.MultiClassClassifier;
 import moa.classifiers.sae.Graph;
+import moa.classifiers.sae.InstanceBuffer;
+import moa.classifiers.sae.LearnerFactory;
 import moa.core.Measurement;
 import moa.options.ClassOption;
 
@@ -27,7 +30,9 @@ public class SFNClassifier extends AbstractClassifier implements MultiClassClass
 	private static final long serialVersionUID = 1L;
 
 	//The Node used in SFNClassifier
-    public class SFNCVertex {
+    public class SFNCVertex implements Serializable {
+
+        private static final long serialVersionUID = 1L;
 
         //the base classifier
         private Classifier baseClassifier;
@@ -52,6 +57,13 @@ public class SFNClassifier extends AbstractClassifier implements MultiClassClass
             this.lastClassification = 0.0d;
         }
 
+        //constructor, the learner is new and untrained (see LearnerFactory)
+        public SFNCVertex(LearnerFactory factory) {
+            this.baseClassifier = factory.newLearner();
+            this.instances = this.instancesSeen = this.hits = 0;
+            this.lastClassification = 0.0d;
+        }
+
         //interfaces
         public double[] getVotesForInstance(Instance instance) {
             double ret[] = this.baseClassifier.getVotesForInstance(instance);
@@ -114,15 +126,28 @@ public class SFNClassifier extends AbstractClassifier implements MultiClassClass
                     "Determines the maximum amount of nodes in the network.",
                     10, 3, 1000);
 
-    //the attributes
-    private transient Graph<SFNCVertex, Integer> network
+    public IntOption recycledLearnersOption
+            = new IntOption("recycledLearners", 'c',
+                    "Learners of removed nodes kept (reset) to be reused by new nodes, the base learner must reset completely (0 = no recycling).",
+                    0, 0, Integer.MAX_VALUE);
+
+    public IntOption misclassifiedSpillThresholdOption
+            = new IntOption("misclassifiedSpillThreshold", 's',
+                    "Number of misclassified instances kept in memory before spilling to a memory-mapped temporary file (0 = never spill).",
+                    0, 0, Integer.MAX_VALUE);
+
+    //the attributes (serializable, so idle models can be written to disk, see KeyedEnsembleManager)
+    private Graph<SFNCVertex, Integer> network
             = new Graph<SFNCVertex, Integer>(adoptedMetricOption.getValueAsCLIString());
     private int lastID = 0;
     private int instancesSeen = 0;
-    private ArrayList<Instance> misclassifiedInstances
-            = new ArrayList<Instance>();
+    //misclassified instances are kept as primitive columns, not as Instance objects
+    private InstanceBuffer misclassifiedInstances
+            = new InstanceBuffer(misclassifiedSpillThresholdOption.getValue());
     private int instancesInThisPeriod = 0;
     private int hits = 0;
+    //builds the learners of new nodes from a prototype, prepared once (see LearnerFactory)
+    private LearnerFactory learnerFactory;
 
     //MUTATORS
     private void updateNetwork() {
@@ -148,8 +173,8 @@ public class SFNClassifier extends AbstractClassifier implements MultiClassClass
         this.misclassifiedInstances.clear();
 
         // clear the stats of the nodes
-        for (Integer iterator : network.getNodesIDs()) {
-            ((SFNCVertex) network.getNode(iterator)).cleanStats();
+        for (int i = 0; i < network.getNodesQuantity(); i++) {
+            network.valueAt(i).cleanStats();
         }
 
         // clear global stats
@@ -215,6 +240,9 @@ public class SFNClassifier extends AbstractClassifier implements MultiClassClass
             ArrayList<Integer> neighbors
                     = new ArrayList<Integer>(network.getNeighborsIDs(vID));
 
+            if (learnerFactory != null) {
+                learnerFactory.recycle(network.getNode(vID).baseClassifier);
+            }
             network.removeNode(vID);
 
             //we sort the neighbors descendingly according to their hit rate
@@ -263,13 +291,18 @@ public class SFNClassifier extends AbstractClassifier implements MultiClassClass
     public void resetLearningImpl() {
         network = new Graph<SFNCVertex, Integer>(adoptedMetricOption.getValueAsCLIString());
         this.lastID = 0;
+        if (misclassifiedInstances != null) {
+            misclassifiedInstances.close();
+        }
+        misclassifiedInstances = new InstanceBuffer(misclassifiedSpillThresholdOption.getValue());
+        learnerFactory = null;
     }
 
     @Override
     public void trainOnInstanceImpl(Instance instnc) {
         //trains each expert using the instance
-        for (Integer iterator : network.getNodesIDs()) {
-            ((SFNCVertex) network.getNode(iterator)).trainOnInstance(instnc);
+        for (int i = 0; i < network.getNodesQuantity(); i++) {
+            network.valueAt(i).trainOnInstance(instnc);
         }
     }
 
@@ -302,11 +335,10 @@ public class SFNClassifier extends AbstractClassifier implements MultiClassClass
         }
 
         //for each node in the network, we request its vote
-        for (Integer iterator : network.getNodesIDs()) {
+        for (int i = 0; i < network.getNodesQuantity(); i++) {
             int vote = 
-                    Utils.maxIndex(((SFNCVertex) network.getNode(iterator)).
-                            getVotesForInstance(instnc));            
-            votes[vote] += network.getCentralityMetric(iterator);
+                    Utils.maxIndex(network.valueAt(i).getVotesForInstance(instnc));            
+            votes[vote] += network.getCentralityMetric(network.nodeAt(i));
         }
 
         //we determine the global prediction
@@ -338,10 +370,15 @@ public class SFNClassifier extends AbstractClassifier implements MultiClassClass
     }
 
     //AUXILIAR METHODS
-    private SFNCVertex instantiateNewVertex(ArrayList<Instance> arr) {
-        SFNCVertex newVertex = new SFNCVertex((Classifier) getPreparedClassOption(baseLeanerOption));
+    private SFNCVertex instantiateNewVertex(Iterable<Instance> arr) {
+        if (learnerFactory == null) {
+            learnerFactory = new LearnerFactory((Classifier) getPreparedClassOption(baseLeanerOption),
+                    recycledLearnersOption.getValue());
+        }
+        SFNCVertex newVertex = new SFNCVertex(learnerFactory);
         for (Instance instance : arr) {
-            newVertex.trainOnInstance(instance);
+            //the buffer reuses one instance for every row, learners may keep what they are given
+            newVertex.trainOnInstance(instance.copy());
         }
         return newVertex;
     }
@@ -0,0 +1,188 @@
+package moa.classifiers.sae.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.classifiers.Classifier;
+import weka.core.Utils;
+
+/**
+ * Worker process that keeps the learners of some experts (see RemoteExperts). It
+ * connects back to the coordinator through a loopback socket given by its port
+ * (the only argument) and serves requests until it is told to shut down or the
+ * connection is closed.
+ *
+ * Requests (first byte is the operation):
+ *   HEADER  serialized header of the instances that follow,
+ *   ADD     expert id and serialized learner,
+ *   REMOVE  expert id,
+ *   TICK    instances of the window (values only), training entries (expert id,
+ *           instance within the window, weight) and optionally one instance to be
+ *           predicted by every learner, in which case the reply is every expert id
+ *           along with its predicted class,
+ *   FETCH   expert id, the reply is its serialized learner,
+ *   SHUTDOWN.
+ */
+public class ExpertWorker {
+	static final byte OP_HEADER = 1;
+	static final byte OP_ADD = 2;
+	static final byte OP_REMOVE = 3;
+	static final byte OP_TICK = 4;
+	static final byte OP_FETCH = 5;
+	static final byte OP_SHUTDOWN = 6;
+	/* Socket buffers size */
+	static final int BUFFER_SIZE = 1 << 16;
+
+	protected final DataInputStream in;
+	protected final DataOutputStream out;
+	protected final HashMap<Integer, Classifier> learners = new HashMap<Integer, Classifier>();
+	protected Instances header = null;
+
+	public ExpertWorker(DataInputStream in, DataOutputStream out) {
+		this.in = in;
+		this.out = out;
+	}
+
+	public static void main(String[] args) {
+		try {
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]));
+			socket.setTcpNoDelay(true);
+			try {
+				new ExpertWorker(new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE)),
+						new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE))).serve();
+			} finally {
+				socket.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Expert worker stopped " + e.getMessage() + "\n");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Serve requests until SHUTDOWN or until the coordinator closes the connection. */
+	public void serve() throws IOException {
+		while(true) {
+			byte op;
+			try {
+				op = in.readByte();
+			} catch (EOFException e) {
+				return;
+			}
+			switch(op) {
+			case OP_HEADER:
+				header = (Instances) deserialize(readBytes(in));
+				break;
+			case OP_ADD:
+				int added = in.readInt();
+				learners.put(added, (Classifier) deserialize(readBytes(in)));
+				break;
+			case OP_REMOVE:
+				learners.remove(in.readInt());
+				break;
+			case OP_TICK:
+				tick();
+				break;
+			case OP_FETCH:
+				writeBytes(out, serialize(learners.get(in.readInt())));
+				out.flush();
+				break;
+			case OP_SHUTDOWN:
+				return;
+			default:
+				throw new IOException("Unknown operation " + op);
+			}
+		}
+	}
+
+	protected void tick() throws IOException {
+		int windowSize = in.readInt();
+		double[][] window = new double[windowSize][];
+		for(int i = 0 ; i < windowSize ; ++i)
+			window[i] = readValues(in);
+		int trainSize = in.readInt();
+		for(int t = 0 ; t < trainSize ; ++t) {
+			Classifier learner = learners.get(in.readInt());
+			int i = in.readInt();
+			double weight = in.readDouble();
+			/* Entries of experts removed meanwhile are ignored */
+			if(learner != null)
+				learner.trainOnInstance(toInstance(window[i], weight));
+		}
+		if(in.readBoolean()) {
+			Instance instance = toInstance(readValues(in), 1.0);
+			out.writeInt(learners.size());
+			for(Entry<Integer, Classifier> e : learners.entrySet()) {
+				out.writeInt(e.getKey());
+				out.writeInt(Utils.maxIndex(e.getValue().getVotesForInstance(instance)));
+			}
+			out.flush();
+		}
+	}
+
+	protected Instance toInstance(double[] values, double weight) {
+		Instance instance = new DenseInstance(weight, values);
+		instance.setDataset(header);
+		return instance;
+	}
+
+	/* Encoding shared with RemoteExperts */
+	static void writeValues(DataOutputStream out, double[] values) throws IOException {
+		out.writeInt(values.length);
+		for(double v : values)
+			out.writeDouble(v);
+	}
+
+	static double[] readValues(DataInputStream in) throws IOException {
+		double[] values = new double[in.readInt()];
+		for(int a = 0 ; a < values.length ; ++a)
+			values[a] = in.readDouble();
+		return values;
+	}
+
+	static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	static byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static Object deserialize(byte[] bytes) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			in.close();
+		}
+	}
+}
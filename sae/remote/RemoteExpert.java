@@ -0,0 +1,71 @@
+package moa.classifiers.sae.remote;
+
+import java.util.ArrayList;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.Classifier;
+import moa.classifiers.sae.Expert;
+
+/**
+ * Expert whose learner lives in a worker process (see RemoteExperts). Counters,
+ * candidate flag and last prediction are kept here, as for any other expert, thus
+ * Connections and voting do not know the difference. Predictions are made by the
+ * worker for every expert at once (see RemoteExperts.predict) and training instances
+ * are sent to the worker along with the next prediction request.
+ */
+public class RemoteExpert extends Expert {
+	protected final RemoteExperts remote;
+
+	/**
+	 * Create a new expert in a worker process.
+	 * @param remote worker processes
+	 * @param ID must be be unique
+	 * @param learner base learner (copied to the worker)
+	 * @param createdOn when it was created
+	 * @param candidate whether it is a candidate or not */
+	public RemoteExpert(RemoteExperts remote, int ID, Classifier learner, long createdOn, boolean candidate) {
+		super(ID, null, createdOn, candidate, 0, 1.0, -1);
+		this.remote = remote;
+		remote.add(ID, learner);
+	}
+
+	/**
+	 * Move an expert (e.g. restored from a checkpoint) to a worker process.
+	 * @param remote worker processes
+	 * @param local expert whose learner is sent to the worker */
+	public RemoteExpert(RemoteExperts remote, Expert local) {
+		super(local.getID(), null, local.getCreatedOn(), local.isCandidate(), local.getCorrectlyClassified(),
+				local.getCorrectlyClassifiedRatioLastPeriod(), local.getLastPredictedClass());
+		this.remote = remote;
+		remote.add(ID, local.getLearner());
+	}
+
+	@Override
+	protected int predict(Instance instance) {
+		return remote.predictedClass(ID, instance);
+	}
+
+	@Override
+	public void train(Instance instance) {
+		completeSkippedTest();
+		remote.train(ID, instance);
+	}
+
+	@Override
+	public void train(ArrayList<Instance> instances) {
+		completeSkippedTest();
+		for(Instance i : instances)
+			remote.train(ID, i);
+	}
+
+	/* Accessors */
+	@Override
+	public Classifier getLearner() {
+		return remote.fetch(ID);
+	}
+	@Override
+	public Classifier copyLearner() {
+		return remote.fetch(ID);
+	}
+}
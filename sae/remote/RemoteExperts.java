@@ -0,0 +1,273 @@
+package moa.classifiers.sae.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.classifiers.Classifier;
+
+/**
+ * Coordinator side of the worker processes that keep the learners of remote experts
+ * (see RemoteExpert). Workers are started on this machine, with the same class path,
+ * and talk to the coordinator through loopback sockets (see ExpertWorker for the
+ * protocol). Each new expert goes to the worker with the fewest experts.
+ *
+ * Requests are batched per tick: training instances are buffered and sent along with
+ * the next prediction request, every instance is sent once per window (bagging copies
+ * of the same instance only add a training entry with its weight), and every worker
+ * predicts for all of its experts at once, returning only predicted classes. Workers
+ * are asked in parallel, i.e. all requests are sent before any reply is read.
+ *
+ * Methods are synchronized, since experts may be trained by many threads at once
+ * (see Network.trainOnBlock).
+ */
+public class RemoteExperts {
+	/* Maximum time (ms) to wait for a worker process to connect back */
+	private static final int CONNECT_TIMEOUT = 30000;
+
+	protected final Worker[] workers;
+	/* Worker that keeps the learner of each expert */
+	protected final HashMap<Integer, Worker> owners = new HashMap<Integer, Worker>();
+	/* Last predicted class of each expert, the instance they refer to and whether no 
+	 * training was sent to the workers since (otherwise the instance must be predicted again). 
+	 * Training that is only queued does not change the learners yet. */
+	protected final HashMap<Integer, Integer> predictions = new HashMap<Integer, Integer>();
+	protected Instance predicted = null;
+	protected boolean upToDate = false;
+
+	/**
+	 * One worker process, its connection and the requests not sent yet. */
+	protected class Worker {
+		protected final Process process;
+		protected final Socket socket;
+		protected final DataInputStream in;
+		protected final DataOutputStream out;
+		/* Header of the instances last sent */
+		protected Instances header = null;
+		protected int experts = 0;
+		/* Instances of the current window and training entries */
+		protected final ArrayList<double[]> window = new ArrayList<double[]>();
+		protected int[] trainExpert = new int[64], trainInstance = new int[64];
+		protected double[] trainWeight = new double[64];
+		protected int trainSize = 0;
+
+		protected Worker(Process process, Socket socket) throws IOException {
+			this.process = process;
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), ExpertWorker.BUFFER_SIZE));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), ExpertWorker.BUFFER_SIZE));
+		}
+
+		protected void sendHeader(Instance instance) throws IOException {
+			if(instance.dataset() != header) {
+				header = instance.dataset();
+				out.writeByte(ExpertWorker.OP_HEADER);
+				ExpertWorker.writeBytes(out, ExpertWorker.serialize(header));
+			}
+		}
+
+		protected void queue(int ID, Instance instance) throws IOException {
+			sendHeader(instance);
+			double[] values = instance.toDoubleArray();
+			/* Bagging copies of the same instance arrive one after the other */
+			if(window.isEmpty() || !Arrays.equals(window.get(window.size() - 1), values))
+				window.add(values);
+			if(trainSize == trainExpert.length) {
+				trainExpert = Arrays.copyOf(trainExpert, trainSize * 2);
+				trainInstance = Arrays.copyOf(trainInstance, trainSize * 2);
+				trainWeight = Arrays.copyOf(trainWeight, trainSize * 2);
+			}
+			trainExpert[trainSize] = ID;
+			trainInstance[trainSize] = window.size() - 1;
+			trainWeight[trainSize] = instance.weight();
+			++trainSize;
+		}
+
+		/**
+		 * Send the current window (and the instance to be predicted, if any). */
+		protected void sendTick(Instance toPredict) throws IOException {
+			if(toPredict != null)
+				sendHeader(toPredict);
+			out.writeByte(ExpertWorker.OP_TICK);
+			out.writeInt(window.size());
+			for(double[] values : window)
+				ExpertWorker.writeValues(out, values);
+			out.writeInt(trainSize);
+			for(int t = 0 ; t < trainSize ; ++t) {
+				out.writeInt(trainExpert[t]);
+				out.writeInt(trainInstance[t]);
+				out.writeDouble(trainWeight[t]);
+			}
+			out.writeBoolean(toPredict != null);
+			if(toPredict != null)
+				ExpertWorker.writeValues(out, toPredict.toDoubleArray());
+			out.flush();
+			window.clear();
+			trainSize = 0;
+		}
+
+		protected void receivePredictions() throws IOException {
+			int n = in.readInt();
+			for(int e = 0 ; e < n ; ++e)
+				predictions.put(in.readInt(), in.readInt());
+		}
+
+		protected void shutdown() {
+			try {
+				out.writeByte(ExpertWorker.OP_SHUTDOWN);
+				out.flush();
+				socket.close();
+			} catch (IOException e) {
+				System.out.println("Not possible to shut down expert worker " + e.getMessage() + "\n");
+				e.printStackTrace();
+			}
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				process.destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Start the worker processes and wait for them to connect.
+	 * @param numberOfWorkers */
+	public RemoteExperts(int numberOfWorkers) throws IOException {
+		workers = new Worker[numberOfWorkers];
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ServerSocket server = new ServerSocket(0, numberOfWorkers, InetAddress.getLoopbackAddress());
+		server.setSoTimeout(CONNECT_TIMEOUT);
+		try {
+			for(int w = 0 ; w < numberOfWorkers ; ++w) {
+				Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+						ExpertWorker.class.getName(), String.valueOf(server.getLocalPort())).inheritIO().start();
+				try {
+					workers[w] = new Worker(process, server.accept());
+				} catch (IOException e) {
+					process.destroy();
+					for(int started = 0 ; started < w ; ++started)
+						workers[started].shutdown();
+					throw e;
+				}
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * Create the learner of an expert in the worker with the fewest experts.
+	 * @param ID expert id
+	 * @param learner copied (serialized) to the worker */
+	public synchronized void add(int ID, Classifier learner) {
+		Worker worker = workers[0];
+		for(Worker w : workers)
+			if(w.experts < worker.experts)
+				worker = w;
+		try {
+			worker.out.writeByte(ExpertWorker.OP_ADD);
+			worker.out.writeInt(ID);
+			ExpertWorker.writeBytes(worker.out, ExpertWorker.serialize(learner));
+		} catch (IOException e) {
+			throw new IllegalStateException("Not possible to send expert " + ID + " to worker", e);
+		}
+		++worker.experts;
+		owners.put(ID, worker);
+	}
+
+	/**
+	 * Remove the learner of an expert from its worker.
+	 * @param ID expert id */
+	public synchronized void release(int ID) {
+		Worker worker = owners.remove(ID);
+		if(worker == null)
+			return;
+		try {
+			worker.out.writeByte(ExpertWorker.OP_REMOVE);
+			worker.out.writeInt(ID);
+		} catch (IOException e) {
+			throw new IllegalStateException("Not possible to remove expert " + ID + " from worker", e);
+		}
+		--worker.experts;
+		predictions.remove(ID);
+	}
+
+	/**
+	 * Queue an instance to train the learner of an expert. It is sent with the next request.
+	 * @param ID expert id
+	 * @param instance */
+	public synchronized void train(int ID, Instance instance) {
+		try {
+			owners.get(ID).queue(ID, instance);
+		} catch (IOException e) {
+			throw new IllegalStateException("Not possible to send instance to worker", e);
+		}
+	}
+
+	/**
+	 * Every remote expert predicts an instance (after training on the instances queued so far).
+	 * @param instance */
+	public synchronized void predict(Instance instance) {
+		try {
+			for(Worker w : workers)
+				w.sendTick(instance);
+			for(Worker w : workers)
+				w.receivePredictions();
+		} catch (IOException e) {
+			throw new IllegalStateException("Not possible to get predictions from workers", e);
+		}
+		predicted = instance;
+		upToDate = true;
+	}
+
+	/**
+	 * @param ID expert id
+	 * @param instance
+	 * @return class predicted by an expert, predicting the instance again only if needed */
+	public synchronized int predictedClass(int ID, Instance instance) {
+		if(!upToDate || instance != predicted || !predictions.containsKey(ID))
+			predict(instance);
+		return predictions.get(ID);
+	}
+
+	/**
+	 * @param ID expert id
+	 * @return copy of the learner of an expert (trained on every instance queued so far) */
+	public synchronized Classifier fetch(int ID) {
+		Worker worker = owners.get(ID);
+		try {
+			if(worker.trainSize > 0)
+				upToDate = false;
+			worker.sendTick(null);
+			worker.out.writeByte(ExpertWorker.OP_FETCH);
+			worker.out.writeInt(ID);
+			worker.out.flush();
+			return (Classifier) ExpertWorker.deserialize(ExpertWorker.readBytes(worker.in));
+		} catch (IOException e) {
+			throw new IllegalStateException("Not possible to fetch expert " + ID + " from worker", e);
+		}
+	}
+
+	/**
+	 * Shut down every worker process. */
+	public synchronized void close() {
+		for(Worker w : workers)
+			w.shutdown();
+		owners.clear();
+		predictions.clear();
+	}
+}
@@ -0,0 +1,427 @@
+package moa.classifiers.sae.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Reads dense ARFF or CSV files (by extension) through a memory-mapped view of the file.
+ * Values are parsed straight from the mapped bytes into an existing instance (see next),
+ * so no String or Instance is created per row. Files larger than 2GB are mapped in windows.
+ *
+ * ARFF: numeric (numeric, real, integer) and nominal attributes are supported, the class
+ * is the last attribute. CSV: the first line holds the attribute names and the class is
+ * the last column. A first pass over a CSV file finds which columns are nominal (the class
+ * and any column with a value that is not a number) along with their values. Missing
+ * values ('?') and unknown nominal values are read as missing (NaN).
+ */
+public class MappedInstanceReader {
+	/* Size of each mapped window of the file */
+	private static final long WINDOW_SIZE = 1L << 28;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	protected final RandomAccessFile raf;
+	protected final FileChannel channel;
+	protected final long fileSize;
+	protected final boolean csv;
+	/* Current window, its position within the file and the read position within it */
+	protected MappedByteBuffer window;
+	protected long windowStart;
+	protected int position;
+	/* Position of the first data line within the file */
+	protected long dataStart;
+	/* Bounds of the last line read (within window) */
+	protected int lineStart, lineEnd;
+
+	protected InstancesHeader header;
+	protected int numAttributes;
+	/* Nominal values of each attribute (null for numeric attributes) */
+	protected NominalValues[] nominal;
+
+	/**
+	 * Values of a nominal attribute, found by hashing the bytes of a token. */
+	protected static class NominalValues {
+		protected final byte[][] values;
+		/* Open addressing table of value index + 1 (0 = empty slot) */
+		protected final int[] table;
+
+		protected NominalValues(List<String> values) {
+			this.values = new byte[values.size()][];
+			int size = Integer.highestOneBit(Math.max(2, values.size()) * 2) * 2;
+			table = new int[size];
+			for(int v = 0 ; v < values.size() ; ++v) {
+				this.values[v] = values.get(v).getBytes(UTF8);
+				int slot = hash(this.values[v], 0, this.values[v].length) & (size - 1);
+				while(table[slot] != 0)
+					slot = (slot + 1) & (size - 1);
+				table[slot] = v + 1;
+			}
+		}
+
+		/** @return index of the value in bytes[from, to) (-1 if unknown) */
+		protected int indexOf(MappedByteBuffer bytes, int from, int to) {
+			int slot = hash(bytes, from, to) & (table.length - 1);
+			while(table[slot] != 0) {
+				byte[] value = values[table[slot] - 1];
+				if(equals(value, bytes, from, to))
+					return table[slot] - 1;
+				slot = (slot + 1) & (table.length - 1);
+			}
+			return -1;
+		}
+
+		private static boolean equals(byte[] value, MappedByteBuffer bytes, int from, int to) {
+			if(value.length != to - from)
+				return false;
+			for(int i = 0 ; i < value.length ; ++i)
+				if(value[i] != bytes.get(from + i))
+					return false;
+			return true;
+		}
+
+		private static int hash(byte[] bytes, int from, int to) {
+			int h = 0x811c9dc5;
+			for(int i = from ; i < to ; ++i)
+				h = (h ^ bytes[i]) * 0x01000193;
+			return h ^ (h >>> 16);
+		}
+
+		private static int hash(MappedByteBuffer bytes, int from, int to) {
+			int h = 0x811c9dc5;
+			for(int i = from ; i < to ; ++i)
+				h = (h ^ bytes.get(i)) * 0x01000193;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	public MappedInstanceReader(File file) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		fileSize = channel.size();
+		csv = file.getName().toLowerCase().endsWith(".csv");
+		map(0);
+		if(csv)
+			readCSVHeader(file.getName());
+		else
+			readARFFHeader();
+	}
+
+	/**
+	 * Fill an instance with the values of the next row. The instance must have
+	 * numAttributes values (e.g. DenseInstance) and its weight is set to 1.
+	 * @param instance
+	 * @return false if there are no more rows */
+	public boolean next(Instance instance) throws IOException {
+		if(!nextDataLine())
+			return false;
+		int from = lineStart;
+		for(int a = 0 ; a < numAttributes ; ++a) {
+			if(from > lineEnd)
+				throw new IOException("Missing values in line at " + (windowStart + lineStart));
+			int to = indexOf((byte) ',', from, lineEnd);
+			instance.setValue(a, parseValue(a, from, to));
+			from = to + 1;
+		}
+		instance.setWeight(1.0);
+		return true;
+	}
+
+	/**
+	 * Go back to the first row. */
+	public void restart() throws IOException {
+		map(dataStart);
+	}
+
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+		raf.close();
+	}
+
+	/* Accessors */
+	public InstancesHeader getHeader() {
+		return header;
+	}
+	public int numAttributes() {
+		return numAttributes;
+	}
+
+	protected double parseValue(int a, int from, int to) {
+		/* Trim spaces and quotes */
+		while(from < to && isBlank(window.get(from)))
+			++from;
+		while(to > from && isBlank(window.get(to - 1)))
+			--to;
+		if(to - from == 1 && window.get(from) == '?')
+			return Double.NaN;
+		if(nominal[a] != null) {
+			if(to - from >= 2 && (window.get(from) == '\'' || window.get(from) == '"')) {
+				++from;
+				--to;
+			}
+			int index = nominal[a].indexOf(window, from, to);
+			return index == -1 ? Double.NaN : index;
+		}
+		return parseNumber(from, to);
+	}
+
+	/**
+	 * Parse a decimal number. Numbers whose digits fit in 2^53 and whose decimal exponent
+	 * is within [-22, 22] are computed exactly from their digits (a single correctly
+	 * rounded operation), any other number is parsed by Double.parseDouble. */
+	protected double parseNumber(int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if(i < to && (window.get(i) == '-' || window.get(i) == '+'))
+			negative = window.get(i++) == '-';
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean any = false, truncated = false;
+		for( ; i < to && isDigit(window.get(i)) ; ++i, any = true) {
+			if(digits < 18) {
+				mantissa = mantissa * 10 + (window.get(i) - '0');
+				if(mantissa > 0)
+					++digits;
+			}
+			else
+				truncated = true;
+		}
+		if(i < to && window.get(i) == '.') {
+			for(++i ; i < to && isDigit(window.get(i)) ; ++i, any = true) {
+				if(digits < 18) {
+					mantissa = mantissa * 10 + (window.get(i) - '0');
+					if(mantissa > 0)
+						++digits;
+					--exponent;
+				}
+				else
+					truncated = true;
+			}
+		}
+		if(any && i < to && (window.get(i) == 'e' || window.get(i) == 'E')) {
+			int j = i + 1;
+			boolean negativeExponent = false;
+			if(j < to && (window.get(j) == '-' || window.get(j) == '+'))
+				negativeExponent = window.get(j++) == '-';
+			int e = 0;
+			boolean expDigits = false;
+			for( ; j < to && isDigit(window.get(j)) && e < 100000 ; ++j, expDigits = true)
+				e = e * 10 + (window.get(j) - '0');
+			if(expDigits) {
+				exponent += negativeExponent ? -e : e;
+				i = j;
+			}
+		}
+		/* Beyond 2^53 the mantissa itself is not exact as a double */
+		if(!any || truncated || i != to || exponent < -22 || exponent > 22 || mantissa > (1L << 53))
+			return slowParseNumber(from, to);
+		double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+		return negative ? -value : value;
+	}
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	protected double slowParseNumber(int from, int to) {
+		try {
+			return Double.parseDouble(token(from, to));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Move to the next line with data (skipping blank lines and comments).
+	 * @return false at the end of the file */
+	protected boolean nextDataLine() throws IOException {
+		while(nextLine()) {
+			int from = lineStart;
+			while(from < lineEnd && isBlank(window.get(from)))
+				++from;
+			if(from == lineEnd || window.get(from) == '%')
+				continue;
+			if(window.get(from) == '{')
+				throw new IOException("Sparse ARFF is not supported");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Move to the next line. The line is entirely within the current window.
+	 * @return false at the end of the file */
+	protected boolean nextLine() throws IOException {
+		if(windowStart + position >= fileSize)
+			return false;
+		int end = indexOf((byte) '\n', position, window.limit());
+		if(end == window.limit() && windowStart + end < fileSize) {
+			/* The line crosses the end of the window */
+			map(windowStart + position);
+			end = indexOf((byte) '\n', position, window.limit());
+			if(end == window.limit() && windowStart + end < fileSize)
+				throw new IOException("Line longer than " + WINDOW_SIZE + " bytes at " + windowStart);
+		}
+		lineStart = position;
+		lineEnd = end > lineStart && window.get(end - 1) == '\r' ? end - 1 : end;
+		position = end + 1;
+		return true;
+	}
+
+	protected void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+		position = 0;
+	}
+
+	protected void readARFFHeader() throws IOException {
+		String relation = "data";
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		List<NominalValues> values = new ArrayList<NominalValues>();
+		while(nextLine()) {
+			String line = token(lineStart, lineEnd).trim();
+			String lower = line.toLowerCase();
+			if(lower.startsWith("@relation"))
+				relation = unquote(line.substring("@relation".length()).trim());
+			else if(lower.startsWith("@attribute")) {
+				String definition = line.substring("@attribute".length()).trim();
+				String name;
+				int end;
+				if(definition.startsWith("'") || definition.startsWith("\"")) {
+					end = definition.indexOf(definition.charAt(0), 1) + 1;
+					name = definition.substring(1, end - 1);
+				}
+				else {
+					end = 0;
+					while(end < definition.length() && !Character.isWhitespace(definition.charAt(end)))
+						++end;
+					name = definition.substring(0, end);
+				}
+				String type = definition.substring(end).trim();
+				if(type.startsWith("{")) {
+					List<String> nominalValues = new ArrayList<String>();
+					for(String v : type.substring(1, type.lastIndexOf('}')).split(","))
+						nominalValues.add(unquote(v.trim()));
+					attributes.add(new Attribute(name, nominalValues));
+					values.add(new NominalValues(nominalValues));
+				}
+				else if(type.toLowerCase().matches("numeric|real|integer")) {
+					attributes.add(new Attribute(name));
+					values.add(null);
+				}
+				else
+					throw new IOException("Attribute type not supported: " + type);
+			}
+			else if(lower.startsWith("@data")) {
+				dataStart = windowStart + position;
+				createHeader(relation, attributes, values);
+				return;
+			}
+		}
+		throw new IOException("@data not found");
+	}
+
+	protected void readCSVHeader(String relation) throws IOException {
+		if(!nextLine())
+			throw new IOException("Empty file");
+		String[] names = token(lineStart, lineEnd).split(",");
+		dataStart = windowStart + position;
+		numAttributes = names.length;
+
+		/* First pass: nominal columns and their values */
+		List<LinkedHashSet<String>> found = new ArrayList<LinkedHashSet<String>>();
+		for(int a = 0 ; a < numAttributes ; ++a)
+			found.add(a == numAttributes - 1 ? new LinkedHashSet<String>() : null);
+		boolean[] isNominal = new boolean[numAttributes];
+		isNominal[numAttributes - 1] = true;
+		while(nextDataLine()) {
+			int from = lineStart;
+			for(int a = 0 ; a < numAttributes && from <= lineEnd ; ++a) {
+				int to = indexOf((byte) ',', from, lineEnd);
+				String value = null;
+				if(!isNominal[a]) {
+					String v = token(from, to).trim();
+					if(!v.equals("?")) {
+						try {
+							Double.parseDouble(v);
+						} catch (NumberFormatException e) {
+							isNominal[a] = true;
+							found.set(a, new LinkedHashSet<String>());
+							value = v;
+						}
+					}
+				}
+				else
+					value = token(from, to).trim();
+				if(value != null && !value.equals("?"))
+					found.get(a).add(unquote(value));
+				from = to + 1;
+			}
+		}
+		map(dataStart);
+
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		List<NominalValues> values = new ArrayList<NominalValues>();
+		for(int a = 0 ; a < numAttributes ; ++a) {
+			String name = unquote(names[a].trim());
+			if(isNominal[a]) {
+				List<String> nominalValues = new ArrayList<String>(found.get(a));
+				attributes.add(new Attribute(name, nominalValues));
+				values.add(new NominalValues(nominalValues));
+			}
+			else {
+				attributes.add(new Attribute(name));
+				values.add(null);
+			}
+		}
+		createHeader(relation, attributes, values);
+	}
+
+	protected void createHeader(String relation, List<Attribute> attributes, List<NominalValues> values) {
+		numAttributes = attributes.size();
+		nominal = values.toArray(new NominalValues[numAttributes]);
+		Instances instances = new Instances(relation, attributes, 0);
+		instances.setClassIndex(numAttributes - 1);
+		header = new InstancesHeader(instances);
+	}
+
+	private int indexOf(byte b, int from, int to) {
+		for(int i = from ; i < to ; ++i)
+			if(window.get(i) == b)
+				return i;
+		return to;
+	}
+
+	private String token(int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for(int i = 0 ; i < bytes.length ; ++i)
+			bytes[i] = window.get(from + i);
+		return new String(bytes, UTF8);
+	}
+
+	private static String unquote(String s) {
+		if(s.length() >= 2 && (s.charAt(0) == '\'' || s.charAt(0) == '"') && s.charAt(s.length() - 1) == s.charAt(0))
+			return s.substring(1, s.length() - 1);
+		return s;
+	}
+
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+}
@@ -0,0 +1,162 @@
+package moa.classifiers.sae.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.Classifier;
+import moa.classifiers.sae.meta.SAE2;
+import moa.options.ClassOption;
+import weka.core.Utils;
+
+/**
+ * Prequential evaluation (test then train) of a classifier, usually SAE2 or SFNClassifier,
+ * over an ARFF or CSV file, without going through moa.DoTask:
+ *
+ *   java -cp moa.jar moa.classifiers.sae.runner.PrequentialRunner file.arff "meta.SAE2 -c 1000" [maxInstances] [ringSize]
+ *
+ * The file is parsed on a separate thread by a MappedInstanceReader. Parsed rows are handed
+ * to the classifier through a bounded ring of reusable instances: a queue of free instances
+ * and a queue of instances ready to be used. The parser never gets more than ringSize
+ * instances ahead of the classifier, and no instance is created per row. Classifiers
+ * (and their base learners) must not keep references to the instances they are trained
+ * on, SAE2 and SFNClassifier copy the instances they keep.
+ *
+ * The report includes prequential accuracy, instances per second and the time the
+ * classifier waited for the parser.
+ */
+public class PrequentialRunner {
+	/* Progress is printed every REPORT_EVERY instances */
+	private static final long REPORT_EVERY = 100000;
+
+	protected final File file;
+	protected final Classifier classifier;
+	protected final int ringSize;
+
+	/* Marks the end of the stream in the ready queue */
+	protected final Instance end = new DenseInstance(0);
+	/* Error raised by the parser thread (if any) */
+	protected volatile IOException parserError = null;
+
+	/* Results */
+	protected long instances, correct;
+	protected long elapsedNanos, waitingNanos;
+
+	/**
+	 * @param file ARFF or CSV file (see MappedInstanceReader)
+	 * @param classifier not prepared yet (its context is set from the file header)
+	 * @param ringSize number of reusable instances */
+	public PrequentialRunner(File file, Classifier classifier, int ringSize) {
+		this.file = file;
+		this.classifier = classifier;
+		this.ringSize = Math.max(2, ringSize);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2) {
+			System.out.println("Usage: PrequentialRunner <file.arff|file.csv> <classifier> [maxInstances] [ringSize]");
+			return;
+		}
+		Classifier classifier = (Classifier) ClassOption.cliStringToObject(args[1], Classifier.class, null);
+		long maxInstances = args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+		int ringSize = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+		PrequentialRunner runner = new PrequentialRunner(new File(args[0]), classifier, ringSize);
+		runner.run(maxInstances);
+		System.out.print(runner.getReport());
+	}
+
+	/**
+	 * Test then train the classifier on every row of the file.
+	 * @param maxInstances maximum number of rows used */
+	public void run(final long maxInstances) throws IOException, InterruptedException {
+		final MappedInstanceReader reader = new MappedInstanceReader(file);
+		InstancesHeader header = reader.getHeader();
+		classifier.setModelContext(header);
+		classifier.prepareForUse();
+
+		final ArrayBlockingQueue<Instance> free = new ArrayBlockingQueue<Instance>(ringSize);
+		final ArrayBlockingQueue<Instance> ready = new ArrayBlockingQueue<Instance>(ringSize + 1);
+		for(int i = 0 ; i < ringSize ; ++i) {
+			Instance instance = new DenseInstance(reader.numAttributes());
+			instance.setDataset(header);
+			free.add(instance);
+		}
+
+		Thread parser = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for(long n = 0 ; n < maxInstances ; ++n) {
+						Instance instance = free.take();
+						if(!reader.next(instance))
+							break;
+						ready.put(instance);
+					}
+				} catch (IOException e) {
+					parserError = e;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					ready.add(end);
+				}
+			}
+		}, "sae-parser");
+		parser.setDaemon(true);
+
+		long start = System.nanoTime();
+		parser.start();
+		boolean lastPredictionKnown = classifier instanceof SAE2;
+		while(true) {
+			long waitStart = System.nanoTime();
+			Instance instance = ready.take();
+			waitingNanos += System.nanoTime() - waitStart;
+			if(instance == end)
+				break;
+			if(!instance.classIsMissing()) {
+				int predicted;
+				if(lastPredictionKnown) {
+					/* SAE2 predicts every instance it is trained on, asking again would
+					 * predict it twice */
+					classifier.trainOnInstance(instance);
+					predicted = ((SAE2) classifier).getLastPredictedClass();
+				}
+				else {
+					predicted = Utils.maxIndex(classifier.getVotesForInstance(instance));
+					classifier.trainOnInstance(instance);
+				}
+				if(predicted == (int) instance.classValue())
+					++correct;
+				if(++instances % REPORT_EVERY == 0)
+					System.out.println(progress(System.nanoTime() - start));
+			}
+			free.put(instance);
+		}
+		elapsedNanos = System.nanoTime() - start;
+		parser.join();
+		reader.close();
+		if(parserError != null)
+			throw parserError;
+	}
+
+	/**
+	 * @return prequential accuracy and throughput */
+	public String getReport() {
+		StringBuilder str = new StringBuilder(300);
+		str.append("classifier: ").append(classifier.getCLICreationString(Classifier.class)).append("\n");
+		str.append("file: ").append(file).append("\n");
+		str.append(progress(elapsedNanos)).append("\n");
+		str.append("seconds waiting for parser: ").append(String.format("%.2f", waitingNanos / 1e9)).append("\n");
+		return str.toString();
+	}
+
+	protected String progress(long nanos) {
+		double seconds = nanos / 1e9;
+		return String.format("instances: %d accuracy: %.4f seconds: %.2f instances per second: %.1f",
+				instances, instances > 0 ? correct / (double) instances : 0.0, seconds,
+				seconds > 0 ? instances / seconds : 0.0);
+	}
+}
@@ -0,0 +1,355 @@
+package moa.classifiers.sae.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.sae.Connections;
+import moa.classifiers.sae.Expert;
+import moa.classifiers.sae.Graph;
+import moa.classifiers.sae.Subnetworks;
+import moa.classifiers.sae.TraceRecorder;
+import moa.classifiers.sae.Workers;
+import moa.classifiers.sae.meta.SAE2;
+import weka.core.Utils;
+
+/**
+ * Replays a trace (see TraceRecorder) through Connections, Subnetworks and a combination
+ * and voting method, without base learners, to evaluate combination and voting methods:
+ *
+ *   java -cp moa.jar moa.classifiers.sae.runner.TraceReplay trace.saet [scMin] [combination voting]
+ *
+ * Without a combination and a voting method, every combination and voting method of SAE2 is
+ * replayed, each pair in parallel (see Workers). Experts come and go as recorded (removal
+ * and addition decisions depend on the learners), while connections, their activation
+ * (with scMin), subnetworks and votes are computed again from the recorded predictions.
+ * A trace starts without active connections, as a new network does. Ties are broken with
+ * a random generator with a fixed seed, thus replays are reproducible.
+ */
+public class TraceReplay {
+	/* Seed of the random generator used to break ties */
+	private static final long SEED = 1;
+
+	protected final File trace;
+
+	/**
+	 * Result of one combination and voting method over the trace. */
+	public static class Result {
+		public final String combination, voting;
+		public long ticks, correct, elapsedNanos;
+
+		Result(String combination, String voting) {
+			this.combination = combination;
+			this.voting = voting;
+		}
+
+		public double getAccuracy() {
+			return ticks > 0 ? correct / (double) ticks : 0.0;
+		}
+	}
+
+	/**
+	 * Expert that predicts what the trace says it predicted. */
+	protected static class ReplayExpert extends Expert {
+		protected int prediction = NO_PREDICTION;
+
+		ReplayExpert(int ID, long createdOn, boolean candidate) {
+			super(ID, null, createdOn, candidate, 0, 1.0, NO_PREDICTION);
+		}
+
+		void setPrediction(int prediction) {
+			this.prediction = prediction;
+			this.lastPredictedClass = prediction;
+			this.skippedInstance = null;
+		}
+
+		@Override
+		protected int predict(Instance instance) {
+			return prediction;
+		}
+	}
+
+	public TraceReplay(File trace) {
+		this.trace = trace;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1 || args.length == 3) {
+			System.out.println("Usage: TraceReplay <trace> [scMin] [combinationClass votingClass]");
+			return;
+		}
+		TraceReplay replay = new TraceReplay(new File(args[0]));
+		double scMin = args.length > 1 ? Double.parseDouble(args[1]) : 0.9;
+		List<Result> results = new ArrayList<Result>();
+		if(args.length > 3)
+			results.add(replay.replay(args[2], args[3], scMin));
+		else
+			results = replay.replayAll(scMin);
+		System.out.print(getReport(results));
+	}
+
+	/**
+	 * Replay every combination and voting method of SAE2, in parallel.
+	 * @param scMin minimum Sc to activate a connection
+	 * @return results in the order of the SAE2 options */
+	public List<Result> replayAll(final double scMin) throws IOException {
+		SAE2 options = new SAE2();
+		List<Callable<Result>> tasks = new ArrayList<Callable<Result>>();
+		for(final String combination : options.combinationMethodOption.getOptionLabels()) {
+			for(final String voting : options.votingMethodOption.getOptionLabels()) {
+				tasks.add(new Callable<Result>() {
+					@Override
+					public Result call() throws IOException {
+						return replay(combination, voting, scMin);
+					}
+				});
+			}
+		}
+		List<Result> results = new ArrayList<Result>(tasks.size());
+		try {
+			for(Future<Result> f : Workers.pool().invokeAll(tasks))
+				results.add(f.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException("Not possible to replay trace", e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Replay the trace with a combination and a voting method.
+	 * @param combinationClassName (see SAE2 combinationMethod)
+	 * @param votingClassName (see SAE2 votingMethod)
+	 * @param scMin minimum Sc to activate a connection
+	 * @return accuracy of the network votes */
+	public Result replay(String combinationClassName, String votingClassName, double scMin) throws IOException {
+		Result result = new Result(combinationClassName, votingClassName);
+		long start = System.nanoTime();
+		TraceReader reader = new TraceReader(trace);
+		try {
+			HashMap<Integer, Expert> experts = new HashMap<Integer, Expert>(30);
+			Graph<Integer, Long> network = new Graph<Integer, Long>();
+			Connections connections = new Connections(experts);
+			Subnetworks subnetworks = null;
+			Random random = new Random(SEED);
+			ReplayExpert[] order = new ReplayExpert[0];
+			Instance instance = null;
+			int numClasses = -1, periodLength = 0;
+			long ticks = 0;
+
+			byte type;
+			while((type = reader.nextRecord()) != TraceRecorder.END) {
+				if(type == TraceRecorder.EPOCH) {
+					reader.readInt();
+					ticks = reader.readLong();
+					int epochPeriodLength = reader.readInt();
+					int epochClasses = reader.readInt();
+					int n = reader.readInt();
+					int[] ids = new int[n];
+					boolean[] candidate = new boolean[n];
+					for(int i = 0 ; i < n ; ++i) {
+						ids[i] = reader.readInt();
+						candidate[i] = reader.readByte() != 0;
+					}
+					if(epochClasses != numClasses) {
+						numClasses = epochClasses;
+						instance = newInstance(numClasses);
+					}
+					if(subnetworks != null)
+						endPeriod(experts, network, connections, subnetworks, ids, candidate, periodLength, scMin);
+					periodLength = epochPeriodLength;
+					/* New experts (ascending IDs, thus older experts come first in their connections) */
+					order = new ReplayExpert[n];
+					for(int i = 0 ; i < n ; ++i) {
+						ReplayExpert e = (ReplayExpert) experts.get(ids[i]);
+						if(e == null) {
+							e = new ReplayExpert(ids[i], ticks, candidate[i]);
+							experts.put(ids[i], e);
+							connections.addAllConnections(e);
+							if(!candidate[i])
+								network.addNode(ids[i], ids[i]);
+						}
+						order[i] = e;
+					}
+					if(subnetworks == null)
+						subnetworks = new Subnetworks(experts, network, combinationClassName, votingClassName, random);
+					else {
+						for(Expert e : experts.values())
+							e.reset(periodLength);
+						connections.reset();
+					}
+				}
+				else if(type == TraceRecorder.TICK) {
+					if(subnetworks == null)
+						throw new IOException("Instance before the first epoch in " + trace);
+					int classValue = reader.readShort();
+					for(ReplayExpert e : order)
+						e.setPrediction(reader.readShort());
+					instance.setClassValue(classValue);
+					double[] votes = subnetworks.combineVotes(instance, periodLength, ticks);
+					if(Utils.maxIndex(votes) == classValue)
+						++result.correct;
+					for(Expert e : experts.values())
+						e.checkAccuracy(instance);
+					connections.updateSimilarities(instance);
+					subnetworks.instanceSeen();
+					++result.ticks;
+					++ticks;
+				}
+				else
+					throw new IOException("Unknown record " + type + " in " + trace);
+			}
+		} finally {
+			reader.close();
+		}
+		result.elapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Same as Network.update: remove the experts that are not in the next epoch, add the
+	 * candidate to the graph (if it is still there), update connections and subnetworks. */
+	protected void endPeriod(HashMap<Integer, Expert> experts, Graph<Integer, Long> network,
+			Connections connections, Subnetworks subnetworks, int[] ids, boolean[] candidate,
+			int periodLength, double scMin) {
+		Set<Integer> next = new HashSet<Integer>();
+		for(int i = 0 ; i < ids.length ; ++i)
+			if(!candidate[i])
+				next.add(ids[i]);
+		for(Integer id : new ArrayList<Integer>(experts.keySet())) {
+			if(!next.contains(id)) {
+				experts.remove(id);
+				network.removeNode(id);
+				connections.removeAllConnections(id);
+			}
+			else if(experts.get(id).isCandidate()) {
+				experts.get(id).candidate = false;
+				network.addNode(id, id);
+			}
+		}
+		connections.update(network, periodLength, scMin);
+		subnetworks.update();
+	}
+
+	/**
+	 * @return instance whose only attribute is the class (the trace only has classes) */
+	protected static Instance newInstance(int numClasses) {
+		List<String> values = new ArrayList<String>(numClasses);
+		for(int c = 0 ; c < numClasses ; ++c)
+			values.add(Integer.toString(c));
+		List<Attribute> attributes = new ArrayList<Attribute>(1);
+		attributes.add(new Attribute("class", values));
+		Instances instances = new Instances("trace", attributes, 0);
+		instances.setClassIndex(0);
+		Instance instance = new DenseInstance(1);
+		instance.setDataset(new InstancesHeader(instances));
+		return instance;
+	}
+
+	public static String getReport(List<Result> results) {
+		StringBuilder str = new StringBuilder(200 * (results.size() + 1));
+		str.append("combination;voting;instances;accuracy;instances per second\n");
+		for(Result r : results) {
+			double seconds = r.elapsedNanos / 1e9;
+			str.append(r.combination).append(";").append(r.voting).append(";");
+			str.append(r.ticks).append(";");
+			str.append(String.format("%.4f", r.getAccuracy())).append(";");
+			str.append(String.format("%.1f", seconds > 0 ? r.ticks / seconds : 0.0)).append("\n");
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Reads a trace through memory-mapped windows of the file (see MappedInstanceReader). */
+	protected static class TraceReader {
+		/* Size of each mapped window of the file */
+		private static final long WINDOW_SIZE = 1L << 28;
+
+		protected final RandomAccessFile raf;
+		protected final FileChannel channel;
+		protected final long fileSize;
+		protected MappedByteBuffer window;
+		protected long windowStart;
+
+		TraceReader(File file) throws IOException {
+			raf = new RandomAccessFile(file, "r");
+			channel = raf.getChannel();
+			fileSize = channel.size();
+			map(0);
+			if(fileSize < 8 || window.getInt() != TraceRecorder.MAGIC)
+				throw new IOException("Not a trace file " + file);
+			int version = window.getInt();
+			if(version != TraceRecorder.VERSION)
+				throw new IOException("Unsupported trace version " + version + " in " + file);
+		}
+
+		/**
+		 * @return type of the next record (END at the end of the file) */
+		byte nextRecord() throws IOException {
+			if(windowStart + window.position() >= fileSize)
+				return TraceRecorder.END;
+			ensure(1);
+			return window.get();
+		}
+
+		int readInt() throws IOException {
+			ensure(4);
+			return window.getInt();
+		}
+
+		long readLong() throws IOException {
+			ensure(8);
+			return window.getLong();
+		}
+
+		short readShort() throws IOException {
+			ensure(2);
+			return window.getShort();
+		}
+
+		byte readByte() throws IOException {
+			ensure(1);
+			return window.get();
+		}
+
+		void close() throws IOException {
+			window = null;
+			channel.close();
+			raf.close();
+		}
+
+		/**
+		 * Move the window to the current position if it has fewer than bytes left. */
+		protected void ensure(int bytes) throws IOException {
+			if(window.remaining() < bytes)
+				map(windowStart + window.position());
+			if(window.remaining() < bytes)
+				throw new IOException("Truncated trace file");
+		}
+
+		protected void map(long position) throws IOException {
+			windowStart = position;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, fileSize - position));
+		}
+	}
+}
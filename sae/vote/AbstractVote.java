@@ -1,11 +1,13 @@
 package  moa.classifiers.sae.vote;
 
 import moa.classifiers.sae.Expert;
+import moa.classifiers.sae.ScoringView;
 
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.yahoo.labs.samoa.instances.Instance;
 import weka.core.Utils;
@@ -23,12 +25,204 @@ public abstract class AbstractVote {
 	/* Counter for network ties */
 	protected long netTieCounter = 0;
 	
+	/* Stop asking experts once the network decision cannot change (see predictVote) */
+	protected boolean earlyExit = false;
+	/* Incremented on every predictVote call (see Expert.test(Instance, long)) */
+	protected long round = 0;
+	/* Tolerance on the remaining votes used to decide whether a vote is decided */
+	private static final double DECISION_TOLERANCE = 1e-9;
+	
 	AbstractVote(HashMap<Integer, Expert> experts, Random random) {
 		this.experts = experts;
 		this.random = random;
 	}
 	
-	public abstract double[] predictVote(Instance instance, int periodLength, long ticks, Collection<Set<Integer>> subnetworks);
+	/**
+	 * Weight of an expert vote within its subnetwork. 
+	 * @param e expert
+	 * @param periodLength
+	 * @param ticks
+	 * @return weight added to the class predicted by the expert */
+	public abstract double expertWeight(Expert e, int periodLength, long ticks);
+	
+	/**
+	 * Weight of a subnetwork vote within the network. 
+	 * @param subVotes votes within the subnetwork
+	 * @param maxValueIndex class predicted by the subnetwork
+	 * @param subSumWeights sum of the weights of every expert in the subnetwork
+	 * @param subnetworkSize number of experts in the subnetwork
+	 * @return weight added to the class predicted by the subnetwork */
+	protected abstract double subnetworkVote(double[] subVotes, int maxValueIndex, double subSumWeights, int subnetworkSize);
+	
+	/**
+	 * Upper bound of subnetworkVote(...) for a subnetwork, known before its experts vote. 
+	 * The default (average weight) holds for every voting scheme in this package. 
+	 * @param subSumWeights sum of the weights of every expert in the subnetwork
+	 * @param subnetworkSize number of experts in the subnetwork
+	 * @return maximum weight the subnetwork may add to a class */
+	protected double maxSubnetworkVote(double subSumWeights, int subnetworkSize) {
+		return subSumWeights/subnetworkSize;
+	}
+	
+	/**
+	 * Whether subnetworkVote(...) depends on how the votes were split within the subnetwork 
+	 * (and not only on the subnetwork decision). If so, early exit (see setEarlyExit) only 
+	 * skips whole subnetworks. */
+	protected boolean subnetworkVoteNeedsAllVotes() {
+		return false;
+	}
+	
+	/**
+	 * Combine experts votes within each subnetwork (see expertWeight), afterwards combine 
+	 * subnetworks votes (see subnetworkVote) on the network vote. Every expert prediction 
+	 * is stored in the expert (lastPredictedClass). 
+	 * 
+	 * With early exit, experts are no longer asked once the remaining votes (within the 
+	 * subnetwork or within the network) cannot change the winner. The predicted class is the 
+	 * same, but the votes of the winner may be lower than without early exit, and ties within 
+	 * skipped subnetworks are not counted. Skipped experts predict lazily, only if their 
+	 * lastPredictedClass is requested (see Expert.skipTest). 
+	 * @return array where the position with the highest value indicates the predicted class */
+	public double[] predictVote(Instance instance, int periodLength, long ticks, Collection<Set<Integer>> subnetworks) {
+		return vote(instance, periodLength, ticks, subnetworks, false);
+	}
+	
+	/**
+	 * Same as predictVote(...), but experts are not asked again, each one votes for its 
+	 * lastPredictedClass (e.g. every expert already predicted the instance, see Network.tick). 
+	 * Early exit does not apply, since there is nothing left to skip. 
+	 * @return array where the position with the highest value indicates the predicted class */
+	public double[] predictCachedVote(Instance instance, int periodLength, long ticks, Collection<Set<Integer>> subnetworks) {
+		return vote(instance, periodLength, ticks, subnetworks, true);
+	}
+	
+	private double[] vote(Instance instance, int periodLength, long ticks, Collection<Set<Integer>> subnetworks, 
+			boolean cached) {
+		int numClasses = instance.numClasses();
+		double[] netVotes = new double[numClasses];
+		boolean earlyExit = this.earlyExit && !cached;
+		/* Every expert is asked at most once per round, even if it belongs to many subnetworks */
+		++round;
+		
+		/* Sum of the weights of each subnetwork experts and the upper bound of the votes that
+		 * the subnetworks not combined yet may add to the network. */
+		double[] subSumWeights = new double[subnetworks.size()];
+		double netRemaining = 0.0;
+		int s = 0;
+		for(Set<Integer> subnetwork : subnetworks) {
+			for(Integer vertex : subnetwork)
+				subSumWeights[s] += expertWeight(experts.get(vertex), periodLength, ticks);
+			netRemaining += maxSubnetworkVote(subSumWeights[s], subnetwork.size());
+			++s;
+		}
+		
+		boolean netDecided = false;
+		s = 0;
+		for(Set<Integer> subnetwork : subnetworks) {
+			if(netDecided) {
+				for(Integer vertex : subnetwork)
+					experts.get(vertex).skipTest(instance, round);
+				continue;
+			}
+			double[] subVotes = new double[numClasses];
+			double subRemaining = subSumWeights[s];
+			boolean subDecided = false;
+			for(Integer vertex : subnetwork) {
+				Expert e = experts.get(vertex);
+				if(subDecided) {
+					e.skipTest(instance, round);
+					continue;
+				}
+				int expertPrediction = cached ? e.getLastPredictedClass() : e.test(instance, round);
+				double weight = expertWeight(e, periodLength, ticks);
+				/* Muted experts do not vote (see Expert.doom) */
+				if(expertPrediction != Expert.NO_PREDICTION)
+					subVotes[expertPrediction] += weight;
+				subRemaining -= weight;
+				subDecided = earlyExit && !subnetworkVoteNeedsAllVotes() && isDecided(subVotes, subRemaining);
+			}
+			int maxValueIndex = maxIndex(subVotes);
+			/* If there was a tie within the subnetwork, then this subnetwork vote IS NOT counted
+			 * in the network prediction. */
+			if(maxValueIndex == -1) 
+				++subTieCounter;
+			else 
+				netVotes[maxValueIndex] += subnetworkVote(subVotes, maxValueIndex, subSumWeights[s], subnetwork.size());
+			netRemaining -= maxSubnetworkVote(subSumWeights[s], subnetwork.size());
+			netDecided = earlyExit && isDecided(netVotes, netRemaining);
+			++s;
+		}
+		int maxValueIndex = maxIndex(netVotes);
+		
+		/* maxValueIndex = -1 indicates that a tie occurred */
+		if(maxValueIndex == -1) {
+			++netTieCounter;
+			/* break ties */
+			netVotes[tieBreak(numClasses)] = 10000;
+		}
+		return netVotes;
+	}
+	
+	/**
+	 * Same as predictVote(...), but over an immutable ScoringView. It does not change any 
+	 * state (experts, tie counters or the random generator used for training), thus any 
+	 * number of threads may call it at once, as long as the base learner predictions do not 
+	 * change the learner (true for MOA trees and Bayes learners). Ties are broken using a 
+	 * random generator local to the calling thread. Early exit applies as in predictVote(...). 
+	 * @return array where the position with the highest value indicates the predicted class */
+	public double[] scoreVote(Instance instance, ScoringView view) {
+		int numClasses = instance.numClasses();
+		double[] netVotes = new double[numClasses];
+		
+		double[] subSumWeights = new double[view.getSubnetworksSize()];
+		double netRemaining = 0.0;
+		for(int s = 0 ; s < view.getSubnetworksSize() ; ++s) {
+			int[] subnetwork = view.getSubnetwork(s);
+			for(int expert : subnetwork)
+				subSumWeights[s] += view.getWeight(expert);
+			netRemaining += maxSubnetworkVote(subSumWeights[s], subnetwork.length);
+		}
+		
+		for(int s = 0 ; s < view.getSubnetworksSize() ; ++s) {
+			int[] subnetwork = view.getSubnetwork(s);
+			double[] subVotes = new double[numClasses];
+			double subRemaining = subSumWeights[s];
+			for(int expert : subnetwork) {
+				int expertPrediction = Utils.maxIndex(view.getLearner(expert).getVotesForInstance(instance));
+				double weight = view.getWeight(expert);
+				subVotes[expertPrediction] += weight;
+				subRemaining -= weight;
+				if(earlyExit && !subnetworkVoteNeedsAllVotes() && isDecided(subVotes, subRemaining))
+					break;
+			}
+			int maxValueIndex = maxIndex(subVotes);
+			if(maxValueIndex != -1)
+				netVotes[maxValueIndex] += subnetworkVote(subVotes, maxValueIndex, subSumWeights[s], subnetwork.length);
+			netRemaining -= maxSubnetworkVote(subSumWeights[s], subnetwork.length);
+			if(earlyExit && isDecided(netVotes, netRemaining))
+				break;
+		}
+		if(maxIndex(netVotes) == -1)
+			netVotes[ThreadLocalRandom.current().nextInt(numClasses)] = 10000;
+		return netVotes;
+	}
+	
+	/**
+	 * Whether the class with most votes keeps its position no matter how 'remaining' more 
+	 * votes are distributed (no ties either). A small tolerance covers rounding errors on 
+	 * the remaining votes. */
+	protected static boolean isDecided(double[] votes, double remaining) {
+		double first = Double.NEGATIVE_INFINITY, second = Double.NEGATIVE_INFINITY;
+		for(double v : votes) {
+			if(v > first) {
+				second = first;
+				first = v;
+			}
+			else if(v > second)
+				second = v;
+		}
+		return first - second > remaining + DECISION_TOLERANCE;
+	}
 	
 	/**
 	 * Default implementation of tie break is Random tie break. 
@@ -60,6 +254,14 @@ public abstract class AbstractVote {
 		return maxValueIndex;
 	}
 	
+	/* Mutators */
+	public void setEarlyExit(boolean earlyExit) {
+		this.earlyExit = earlyExit;
+	}
+	public void setRandom(Random random) {
+		this.random = random;
+	}
+	
 	/* Accessors */
 	public long getNetTieCounter() {
 		return netTieCounter;
@@ -2,12 +2,9 @@ package  moa.classifiers.sae.vote;
 
 import moa.classifiers.sae.Expert;
 
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Random;
-import java.util.Set;
 
-import com.yahoo.labs.samoa.instances.Instance;
 /**
  * Perform a majority vote within subnetworks and weight these based on 
  * subnetwork size. Note: This is the original SAE voting scheme. 
@@ -26,35 +23,19 @@ public class MajorityVoteWeightedBySubnetworkSize extends AbstractVote {
 	}
 
 	@Override
-	public double[] predictVote(Instance instance, int periodLength, long ticks, 
-			Collection<Set<Integer>> subnetworks) {
-		int numClasses = instance.numClasses();
-		double[] netVotes = new double[numClasses];
-		
-		for(Set<Integer> subnetwork : subnetworks) {
-			double[] subVotes = new double[numClasses];
-			for(Integer vertex : subnetwork) {
-				Expert e = experts.get(vertex);
-				int expertPrediction = e.test(instance);
-				subVotes[expertPrediction]++;
-			}
-			int maxValueIndex = maxIndex(subVotes);
-			/* If there was a tie within the subnetwork, then this subnetwork vote IS NOT counted
-			 * in the network prediction. */
-			if(maxValueIndex == -1) 
-				++subTieCounter;
-			else 
-				/* Normalize votes by subnetwork size. */
-				netVotes[maxValueIndex] += subVotes[maxValueIndex]/subnetwork.size();
-		}
-		int maxValueIndex = maxIndex(netVotes);
-		
-		/* maxValueIndex = -1 indicates that a tie occurred */
-		if(maxValueIndex == -1) {
-			++netTieCounter;
-			/* break ties */
-			netVotes[tieBreak(instance.numClasses())] = 10000;
-		}
-		return netVotes;
+	public double expertWeight(Expert e, int periodLength, long ticks) {
+		return 1.0;
+	}
+
+	/* Normalize votes by subnetwork size. */
+	@Override
+	protected double subnetworkVote(double[] subVotes, int maxValueIndex, double subSumWeights, 
+			int subnetworkSize) {
+		return subVotes[maxValueIndex]/subnetworkSize;
+	}
+
+	@Override
+	protected boolean subnetworkVoteNeedsAllVotes() {
+		return true;
 	}
 }
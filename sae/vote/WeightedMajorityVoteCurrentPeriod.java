@@ -2,12 +2,8 @@ package  moa.classifiers.sae.vote;
 
 import moa.classifiers.sae.Expert;
 
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Random;
-import java.util.Set;
-
-import com.yahoo.labs.samoa.instances.Instance;
 
 /**
  * Use expert accuracy as weight to vote within subnetwork. Use subnetwork 
@@ -31,42 +27,15 @@ public class WeightedMajorityVoteCurrentPeriod extends AbstractVote {
 		super(experts, random);
 	}
 
+	/* Asks for accuracy given the amount of instances seen so far (ticks % periodLength). */
+	@Override
+	public double expertWeight(Expert e, int periodLength, long ticks) {
+		return e.getCorrectlyClassifiedRatio((int) ((ticks % periodLength) == 0 ? periodLength : (ticks % periodLength)));
+	}
+
 	@Override
-	public double[] predictVote(Instance instance, int periodLength, long ticks, 
-			Collection<Set<Integer>> subnetworks) {
-		int numClasses = instance.numClasses();
-		double[] netVotes = new double[numClasses];
-		
-		for(Set<Integer> subnetwork : subnetworks) {
-			double subSumAccuracy = 0.0;
-			double[] subVotes = new double[numClasses];
-			for(Integer vertex : subnetwork) {
-				Expert e = experts.get(vertex);
-				int expertPrediction = e.test(instance);
-				
-				/* Asks for accuracy given the amount of instances seen so far (ticks % periodLength). */
-				double expertAccuracy = e.getCorrectlyClassifiedRatio((int) ((ticks % periodLength) == 0 ? periodLength : (ticks % periodLength)));
-				
-				subVotes[expertPrediction] += expertAccuracy;
-				subSumAccuracy += expertAccuracy;
-			}
-			int maxValueIndex = maxIndex(subVotes);
-			
-			/* If there was a tie within the subnetwork, then this subnetwork vote IS NOT counted
-			 * in the network prediction. */
-			if(maxValueIndex == -1)
-				++subTieCounter;
-			else
-				netVotes[maxValueIndex] += subSumAccuracy/subnetwork.size();
-		}
-		int maxValueIndex = maxIndex(netVotes);
-		
-		/* maxValueIndex = -1 indicates that a tie occurred */
-		if(maxValueIndex == -1) {
-			++netTieCounter;
-			/* break ties */
-			netVotes[tieBreak(instance.numClasses())] = 10000;
-		}
-		return netVotes;
+	protected double subnetworkVote(double[] subVotes, int maxValueIndex, double subSumWeights, 
+			int subnetworkSize) {
+		return subSumWeights/subnetworkSize;
 	}
 }